@@ -17,20 +17,38 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import javax.activation.MimetypesFileTypeMap;
 
 import com.google.gdata.client.DocumentQuery;
-import com.google.gdata.client.GoogleService;
 import com.google.gdata.client.Query;
-import com.google.gdata.client.GoogleAuthTokenFactory.UserToken;
+import com.google.gdata.client.Service.GDataRequestFactory;
 import com.google.gdata.client.docs.DocsService;
+import com.google.gdata.client.http.HttpGDataRequest;
+import com.google.gdata.client.media.MediaService;
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.IEntry;
+import com.google.gdata.data.IFeed;
 import com.google.gdata.data.Link;
 import com.google.gdata.data.MediaContent;
 import com.google.gdata.data.PlainTextConstruct;
@@ -47,7 +65,10 @@ import com.google.gdata.data.docs.RevisionFeed;
 import com.google.gdata.data.docs.SpreadsheetEntry;
 import com.google.gdata.data.media.MediaSource;
 import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.RateLimitExceededException;
 import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.ServiceUnavailableException;
 
 /**
  * An application that serves as a sample to show how the GoogleDocsUpload List
@@ -57,7 +78,7 @@ import com.google.gdata.util.ServiceException;
  */
 public class DocumentList {
 	public DocsService service;
-	public GoogleService spreadsheetsService;
+	public MediaService spreadsheetsService;
 
 	public static final String DEFAULT_AUTH_PROTOCOL = "https";
 	public static final String DEFAULT_AUTH_HOST = "docs.google.com";
@@ -68,12 +89,19 @@ public class DocumentList {
 	public static final String SPREADSHEETS_SERVICE_NAME = "wise";
 	public static final String SPREADSHEETS_HOST = "spreadsheets.google.com";
 
+	public static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 1024 * 1024;
+	public static final int DEFAULT_MAX_RETRIES = 5;
+	public static final long MAX_RETRY_AFTER = 5 * 60 * 1000L;
+	public static final long CHUNK_SIZE_UNIT = 512 * 1024;
+	public static final long DEFAULT_CHUNK_SIZE = 10 * CHUNK_SIZE_UNIT;
+
 	private final String URL_FEED = "/feeds";
 	private final String URL_DOWNLOAD = "/download";
 	private final String URL_DOCLIST_FEED = "/private/full";
 
 	private final String URL_DEFAULT = "/default";
 	private final String URL_FOLDERS = "/contents";
+	private final String URL_UPLOAD_SESSION = "/upload/create-session";
 	private final String URL_ACL = "/acl";
 	private final String URL_REVISIONS = "/revisions";
 
@@ -102,6 +130,40 @@ public class DocumentList {
 	private String password;
 	@SuppressWarnings("unused")
 	private String authSubToken;
+	private volatile Semaphore insertPermits;
+	private volatile int downloadBufferSize = DEFAULT_DOWNLOAD_BUFFER_SIZE;
+	private volatile RateLimiter rateLimiter = new RateLimiter();
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private PooledConnectionSource connectionSource;
+	private volatile long chunkSize = DEFAULT_CHUNK_SIZE;
+	private volatile UploadSessions uploadSessions = new UploadSessions();
+	private volatile int pageSize;
+	private ExecutorService pageExecutor;
+
+	/**
+	 * A request to the server, which may be retried when it is throttled.
+	 */
+	private abstract class Request<T> {
+
+		/**
+		 * Sends the request.
+		 *
+		 * @return the result
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 * @throws ServiceException the service exception
+		 */
+		abstract T send() throws IOException, ServiceException;
+
+		/**
+		 * Checks if the request may be sent again after the server has failed
+		 * to answer it, which it may have processed anyway.
+		 *
+		 * @return true, if sending the request twice has the same effect as once
+		 */
+		boolean isIdempotent() {
+			return true;
+		}
+	}
 
 	private final Map<String, String> DOWNLOAD_DOCUMENT_FORMATS;
 	{
@@ -158,6 +220,22 @@ public class DocumentList {
 	 * @throws DocumentListException the document list exception
 	 */
 	public DocumentList(String applicationName, String authProtocol, String authHost, String protocol, String host) throws DocumentListException {
+		this(applicationName, authProtocol, authHost, protocol, host, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param applicationName name of the application
+	 * @param authProtocol the protocol to use for authentication
+	 * @param authHost the host to use for authentication
+	 * @param protocol the protocol to use for the http calls.
+	 * @param host the host that contains the feeds
+	 * @param connectionSource the source of the pooled connections, null for the default connections
+	 * @throws DocumentListException the document list exception
+	 */
+	public DocumentList(String applicationName, String authProtocol, String authHost, String protocol, String host,
+			PooledConnectionSource connectionSource) throws DocumentListException {
 		if (authProtocol == null || authHost == null || protocol == null || host == null) {
 			throw new DocumentListException("null passed in required parameters");
 		}
@@ -165,8 +243,14 @@ public class DocumentList {
 		service = new DocsService(applicationName);
 
 		// Creating a spreadsheets service is necessary for downloading
-		// spreadsheets
-		spreadsheetsService = new GoogleService(SPREADSHEETS_SERVICE_NAME, applicationName);
+		// spreadsheets, which are exported with its own credentials
+		spreadsheetsService = new MediaService(SPREADSHEETS_SERVICE_NAME, applicationName);
+
+		if (connectionSource != null) {
+			setConnectionSource(service.getRequestFactory(), connectionSource);
+			setConnectionSource(spreadsheetsService.getRequestFactory(), connectionSource);
+		}
+		this.connectionSource = connectionSource;
 
 		this.applicationName = applicationName;
 		this.authProtocol = authProtocol;
@@ -175,6 +259,29 @@ public class DocumentList {
 		this.host = host;
 	}
 
+	/**
+	 * Makes the requests of a service use the pooled connections.
+	 *
+	 * @param requestFactory the request factory of the service
+	 * @param connectionSource the source of the pooled connections
+	 * @throws DocumentListException the document list exception
+	 */
+	private static void setConnectionSource(GDataRequestFactory requestFactory, PooledConnectionSource connectionSource) throws DocumentListException {
+		if (!(requestFactory instanceof HttpGDataRequest.Factory)) {
+			throw new DocumentListException("unsupported request factory");
+		}
+		((HttpGDataRequest.Factory) requestFactory).setConnectionSource(connectionSource);
+	}
+
+	/**
+	 * Gets the source of the pooled connections.
+	 *
+	 * @return the connection source, null if the connections are not pooled
+	 */
+	public PooledConnectionSource getConnectionSource() {
+		return connectionSource;
+	}
+
 	/**
 	 * Set user credentials based on a username and password.
 	 *
@@ -244,7 +351,7 @@ public class DocumentList {
 		}
 
 		newEntry.setTitle(new PlainTextConstruct(title));
-		return service.insert(buildUrl(URL_DEFAULT + URL_DOCLIST_FEED), newEntry);
+		return insert(buildUrl(URL_DEFAULT + URL_DOCLIST_FEED), newEntry);
 	}
 
 	/**
@@ -261,7 +368,374 @@ public class DocumentList {
 		DocumentListEntry newEntry = new FolderEntry();
 		newEntry.setTitle(new PlainTextConstruct(title));
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId + URL_FOLDERS);
-		return service.insert(url, newEntry);
+		return insert(url, newEntry);
+	}
+
+	/**
+	 * Limits the number of concurrent insert requests, such as uploads and
+	 * folder creations, issued through this document list.
+	 *
+	 * @param maxConcurrentInserts the maximum number of concurrent inserts, 0 for no limit
+	 */
+	public void setMaxConcurrentInserts(int maxConcurrentInserts) {
+		if (maxConcurrentInserts > 0) {
+			insertPermits = new Semaphore(maxConcurrentInserts, true);
+		} else {
+			insertPermits = null;
+		}
+	}
+
+	/**
+	 * Sets the rate limiter of the requests.
+	 *
+	 * @param rateLimiter the rate limiter
+	 * @throws DocumentListException the document list exception
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) throws DocumentListException {
+		if (rateLimiter == null) {
+			throw new DocumentListException("null rate limiter");
+		}
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Gets the rate limiter of the requests.
+	 *
+	 * @return the rate limiter
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Sets the number of times a throttled request is retried.
+	 *
+	 * @param maxRetries the maximum number of retries, 0 to fail at once
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = Math.max(0, maxRetries);
+	}
+
+	/**
+	 * Sets the size of the chunks of the resumable uploads. The files larger
+	 * than a chunk are uploaded with the resumable upload protocol.
+	 *
+	 * @param chunkSize the chunk size in bytes, rounded up to a multiple of 512 KB, 0 to upload all the files at once
+	 */
+	public void setChunkSize(long chunkSize) {
+		if (chunkSize <= 0) {
+			this.chunkSize = 0;
+		} else {
+			this.chunkSize = (chunkSize + CHUNK_SIZE_UNIT - 1) / CHUNK_SIZE_UNIT * CHUNK_SIZE_UNIT;
+		}
+	}
+
+	/**
+	 * Gets the size of the chunks of the resumable uploads.
+	 *
+	 * @return the chunk size in bytes, 0 if the files are uploaded at once
+	 */
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the sessions of the resumable uploads.
+	 *
+	 * @param uploadSessions the upload sessions
+	 * @throws DocumentListException the document list exception
+	 */
+	public void setUploadSessions(UploadSessions uploadSessions) throws DocumentListException {
+		if (uploadSessions == null) {
+			throw new DocumentListException("null upload sessions");
+		}
+		this.uploadSessions = uploadSessions;
+	}
+
+	/**
+	 * Sets the number of entries requested per page of the docs list feeds.
+	 *
+	 * @param pageSize the page size, 0 for the default page size of the server
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = Math.max(0, pageSize);
+	}
+
+	/**
+	 * Gets the number of entries requested per page of the docs list feeds.
+	 *
+	 * @return the page size, 0 for the default page size of the server
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Gets a pager through the pages of a docs list feed, which requests the
+	 * next page while the current one is being processed.
+	 *
+	 * @param firstPage the first page of the feed
+	 * @return the feed pager
+	 */
+	public synchronized FeedPager getPages(DocumentListFeed firstPage) {
+		if (pageExecutor == null) {
+			pageExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "page-prefetcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return new FeedPager(this, firstPage, pageExecutor);
+	}
+
+	/**
+	 * Gets the entries of a docs list feed, streamed page by page as compact
+	 * remote entries, so that the parsed pages are not kept in memory.
+	 *
+	 * @param firstPage the first page of the feed
+	 * @return the listing, which can be iterated once
+	 */
+	public RemoteListing getEntries(DocumentListFeed firstPage) {
+		return new RemoteListing(getPages(firstPage));
+	}
+
+	/**
+	 * Sets the size of the buffer the downloads are copied through.
+	 *
+	 * @param downloadBufferSize the buffer size in bytes
+	 * @throws DocumentListException the document list exception
+	 */
+	public void setDownloadBufferSize(int downloadBufferSize) throws DocumentListException {
+		if (downloadBufferSize < 1) {
+			throw new DocumentListException("invalid buffer size");
+		}
+		this.downloadBufferSize = downloadBufferSize;
+	}
+
+	/**
+	 * Gets the size of the buffer the downloads are copied through.
+	 *
+	 * @return the buffer size in bytes
+	 */
+	public int getDownloadBufferSize() {
+		return downloadBufferSize;
+	}
+
+	/**
+	 * Inserts an entry into a feed, waiting for an insert permit if the number
+	 * of concurrent inserts is limited.
+	 *
+	 * @param url the url of the feed
+	 * @param entry the entry to insert
+	 * @return the inserted entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private <E extends IEntry> E insert(final URL url, final E entry) throws IOException, ServiceException {
+		return sendInsert(new Request<E>() {
+			E send() throws IOException, ServiceException {
+				return service.insert(url, entry);
+			}
+
+			boolean isIdempotent() {
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Uploads a file with the resumable upload protocol, waiting for an insert
+	 * permit if the number of concurrent inserts is limited. A retry goes on
+	 * from the last chunk received by the server.
+	 *
+	 * @param url the resumable create media url of the feed
+	 * @param file the file
+	 * @param metadata the entry holding the metadata of the document
+	 * @return the uploaded entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private DocumentListEntry insertResumable(final URL url, final File file, final DocumentListEntry metadata) throws IOException, ServiceException {
+		final ResumableUpload upload = new ResumableUpload(service, connectionSource, uploadSessions, chunkSize);
+		// sending it again resumes the session, which returns the document if it has been created
+		return sendInsert(new Request<DocumentListEntry>() {
+			DocumentListEntry send() throws IOException, ServiceException {
+				return upload.upload(url, file, getMimeType(file), metadata);
+			}
+		});
+	}
+
+	/**
+	 * Sends an insert request, waiting for an insert permit if the number of
+	 * concurrent inserts is limited.
+	 *
+	 * @param request the request
+	 * @return the result of the request
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private <T> T sendInsert(final Request<T> request) throws IOException, ServiceException {
+		return send(new Request<T>() {
+			T send() throws IOException, ServiceException {
+				Semaphore permits = insertPermits;
+				if (permits == null) {
+					return request.send();
+				}
+				permits.acquireUninterruptibly();
+				try {
+					return request.send();
+				} finally {
+					permits.release();
+				}
+			}
+
+			boolean isIdempotent() {
+				return request.isIdempotent();
+			}
+		});
+	}
+
+	/**
+	 * Gets a feed.
+	 *
+	 * @param url the url of the feed
+	 * @param feedClass the class of the feed
+	 * @return the feed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private <F extends IFeed> F getFeed(final URL url, final Class<F> feedClass) throws IOException, ServiceException {
+		return send(new Request<F>() {
+			F send() throws IOException, ServiceException {
+				return service.getFeed(url, feedClass);
+			}
+		});
+	}
+
+	/**
+	 * Gets a feed matching a query.
+	 *
+	 * @param query the query
+	 * @param feedClass the class of the feed
+	 * @return the feed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private <F extends IFeed> F getFeed(final Query query, final Class<F> feedClass) throws IOException, ServiceException {
+		return send(new Request<F>() {
+			F send() throws IOException, ServiceException {
+				return service.getFeed(query, feedClass);
+			}
+		});
+	}
+
+	/**
+	 * Deletes an entry.
+	 *
+	 * @param url the edit url of the entry
+	 * @param etag the etag of the entry, null to delete it unconditionally
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private void delete(final URL url, final String etag) throws IOException, ServiceException {
+		send(new Request<Object>() {
+			Object send() throws IOException, ServiceException {
+				if (etag == null) {
+					service.delete(url);
+				} else {
+					service.delete(url, etag);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Sends a request at the rate allowed by the rate limiter, retrying it
+	 * with an exponential backoff while it is throttled by the server or
+	 * could not be sent. The requests which are not idempotent, such as the
+	 * inserts, are retried only when the server has rejected them because of
+	 * the rate limit or they have not reached it, and not when it has been
+	 * unavailable or has not answered, as it may have processed them.
+	 *
+	 * @param request the request
+	 * @return the result of the request
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private <T> T send(Request<T> request) throws IOException, ServiceException {
+		RateLimiter limiter = rateLimiter;
+		for (int attempt = 0;; attempt++) {
+			limiter.acquire();
+			try {
+				T result = request.send();
+				limiter.onSuccess();
+				return result;
+			} catch (ServiceException e) {
+				if (!(isRateLimited(e) || (request.isIdempotent() && e instanceof ServiceUnavailableException)) || attempt >= maxRetries) {
+					throw e;
+				}
+				limiter.onThrottle();
+				RateLimiter.sleep(Math.max(limiter.getBackoff(attempt), getRetryAfter(e)));
+			} catch (IOException e) {
+				if (!isUnsent(e) || attempt >= maxRetries) {
+					throw e;
+				}
+				RateLimiter.sleep(limiter.getBackoff(attempt));
+			}
+		}
+	}
+
+	/**
+	 * Checks if a request has failed before it has been sent, as the
+	 * connection to the server could not be opened.
+	 *
+	 * @param e the exception of the request
+	 * @return true, if the request has not reached the server
+	 */
+	private boolean isUnsent(IOException e) {
+		return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+	}
+
+	/**
+	 * Checks if a request has been rejected because of the rate limit, so
+	 * that it has not been processed.
+	 *
+	 * @param e the exception of the request
+	 * @return true, if the request may be retried later
+	 */
+	private boolean isRateLimited(ServiceException e) {
+		if (e instanceof RateLimitExceededException) {
+			return true;
+		}
+		if (e instanceof ServiceForbiddenException) {
+			// the quota errors come as 403 with a rate limit reason
+			String body = e.getResponseBody();
+			return body != null && (body.contains("RateLimitExceeded") || body.contains("rateLimitExceeded"));
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the delay requested by the server in the Retry-After header,
+	 * up to the maximum delay of a retry.
+	 *
+	 * @param e the exception of the request
+	 * @return the delay in milliseconds, 0 if not requested
+	 */
+	private long getRetryAfter(ServiceException e) {
+		List<String> values = e.getHttpHeader("Retry-After");
+		if (values == null || values.isEmpty()) {
+			return 0;
+		}
+		try {
+			return Math.min(MAX_RETRY_AFTER, Math.max(0, Long.parseLong(values.get(0).trim())) * 1000);
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
 	}
 
 	/**
@@ -282,6 +756,22 @@ public class DocumentList {
 	 * @throws DocumentListException
 	 */
 	public DocumentListFeed getDocsListFeed(String category) throws IOException, MalformedURLException, ServiceException, DocumentListException {
+		return getDocsListFeed(category, null);
+	}
+
+	/**
+	 * Gets a feed containing the documents updated since a given time.
+	 *
+	 * @param category what types of documents to list, see {@link #getDocsListFeed(String)}
+	 * @param updatedMin the lower bound of the update time, null for all the documents
+	 * @return the docs list feed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws MalformedURLException the malformed url exception
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	public DocumentListFeed getDocsListFeed(String category, DateTime updatedMin) throws IOException, MalformedURLException, ServiceException,
+			DocumentListException {
 		if (category == null) {
 			throw new DocumentListException("null category");
 		}
@@ -309,17 +799,20 @@ public class DocumentList {
 			return null;
 		}
 
-		DocumentQuery query = new DocumentQuery(url);
-		// if (!category.equals("folders")) {
-		// query.setMaxResults(101);
-		// }
+		DocumentQuery query = newQuery(url);
+		if (pageSize > 0) {
+			query.setMaxResults(pageSize);
+		}
+		if (updatedMin != null) {
+			query.setUpdatedMin(updatedMin);
+		}
 
-		return service.getFeed(query, DocumentListFeed.class);
+		return getFeed(query, DocumentListFeed.class);
 	}
 
 	public DocumentListFeed getDocsListFeed(Link link) throws MalformedURLException, IOException, ServiceException, DocumentListException {
 		if (link != null) {
-			return service.getFeed(new URL(link.getHref()), DocumentListFeed.class);
+			return getFeed(new URL(link.getHref()), DocumentListFeed.class);
 		}
 		return null;
 	}
@@ -338,9 +831,13 @@ public class DocumentList {
 		if (resourceId == null) {
 			throw new DocumentListException("null resourceId");
 		}
-		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId);
+		final URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId);
 
-		return service.getEntry(url, DocumentListEntry.class);
+		return send(new Request<DocumentListEntry>() {
+			DocumentListEntry send() throws IOException, ServiceException {
+				return service.getEntry(url, DocumentListEntry.class);
+			}
+		});
 	}
 
 	/**
@@ -356,11 +853,28 @@ public class DocumentList {
 	 */
 	public DocumentListFeed getFolderDocsListFeed(String folderResourceId) throws IOException, MalformedURLException, ServiceException,
 			DocumentListException {
+		return getFolderDocsListFeed(folderResourceId, null);
+	}
+
+	/**
+	 * Gets the feed for the objects contained in a folder updated since a given time.
+	 *
+	 * @param folderResourceId the resource id of the folder to return the feed for the
+	 * contents.
+	 * @param updatedMin the lower bound of the update time, null for all the objects
+	 * @return the folder docs list feed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws MalformedURLException the malformed url exception
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	public DocumentListFeed getFolderDocsListFeed(String folderResourceId, DateTime updatedMin) throws IOException, MalformedURLException,
+			ServiceException, DocumentListException {
 		if (folderResourceId == null) {
 			throw new DocumentListException("null folderResourceId");
 		}
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId + URL_FOLDERS);
-		return service.getFeed(url, DocumentListFeed.class);
+		return getFeed(url, updatedMin);
 	}
 
 	/**
@@ -375,12 +889,79 @@ public class DocumentList {
 	 * @throws DocumentListException the document list exception
 	 */
 	public DocumentListFeed getSubFolders(String folderResourceId) throws IOException, MalformedURLException, ServiceException, DocumentListException {
+		return getSubFolders(folderResourceId, null);
+	}
+
+	/**
+	 * Gets the feed for the folders contained in a folder updated since a given time.
+	 *
+	 * @param folderResourceId the resource id of the folder to return the feed for the
+	 * contents.
+	 * @param updatedMin the lower bound of the update time, null for all the folders
+	 * @return the sub folders
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws MalformedURLException the malformed url exception
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	public DocumentListFeed getSubFolders(String folderResourceId, DateTime updatedMin) throws IOException, MalformedURLException, ServiceException,
+			DocumentListException {
 		if (folderResourceId == null) {
 			throw new DocumentListException("null folderResourceId");
 		}
 		String[] parameters = { PARAMETER_SHOW_FOLDERS };
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId + URL_FOLDERS + URL_CATEGORY_FOLDER, parameters);
-		return service.getFeed(url, DocumentListFeed.class);
+		return getFeed(url, updatedMin);
+	}
+
+	/**
+	 * Gets a docs list feed, optionally restricted to the entries updated since a given time.
+	 *
+	 * @param url the url of the feed
+	 * @param updatedMin the lower bound of the update time, null for all the entries
+	 * @return the docs list feed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private DocumentListFeed getFeed(URL url, DateTime updatedMin) throws IOException, ServiceException {
+		if (updatedMin == null && pageSize == 0) {
+			return getFeed(url, DocumentListFeed.class);
+		}
+		DocumentQuery query = newQuery(url);
+		if (pageSize > 0) {
+			query.setMaxResults(pageSize);
+		}
+		if (updatedMin != null) {
+			query.setUpdatedMin(updatedMin);
+		}
+		return getFeed(query, DocumentListFeed.class);
+	}
+
+	/**
+	 * Creates a query of a feed, moving the parameters of the url into the
+	 * query, as a query appends its own parameters after a second "?"
+	 * otherwise, which breaks the updated-min revalidation of the listings.
+	 * The values are decoded, as the query encodes them again.
+	 *
+	 * @param url the url of the feed
+	 * @return the query
+	 * @throws MalformedURLException the malformed url exception
+	 * @throws UnsupportedEncodingException the unsupported encoding exception
+	 */
+	private DocumentQuery newQuery(URL url) throws MalformedURLException, UnsupportedEncodingException {
+		String spec = url.toString();
+		int index = spec.indexOf('?');
+		if (index == -1) {
+			return new DocumentQuery(url);
+		}
+		DocumentQuery query = new DocumentQuery(new URL(spec.substring(0, index)));
+		for (String parameter : spec.substring(index + 1).split("&")) {
+			int separator = parameter.indexOf('=');
+			if (separator != -1) {
+				query.setStringCustomParameter(parameter.substring(0, separator), URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+			}
+		}
+		return query;
 	}
 
 	/**
@@ -400,7 +981,7 @@ public class DocumentList {
 
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_REVISIONS);
 
-		return service.getFeed(url, RevisionFeed.class);
+		return getFeed(url, RevisionFeed.class);
 	}
 
 	/**
@@ -495,7 +1076,37 @@ public class DocumentList {
 			qry.setStringCustomParameter(key, searchParameters.get(key));
 		}
 
-		return service.query(qry, DocumentListFeed.class);
+		return getFeed(qry, DocumentListFeed.class);
+	}
+
+	/**
+	 * Searches the documents of a folder with exactly a title.
+	 *
+	 * @param folderResourceId the resource id of the folder, null to search all the documents
+	 * @param title the title
+	 * @return the document list feed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws MalformedURLException the malformed url exception
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	public DocumentListFeed searchByTitle(String folderResourceId, String title) throws IOException, MalformedURLException, ServiceException,
+			DocumentListException {
+		if (title == null) {
+			throw new DocumentListException("null title");
+		}
+
+		URL url;
+		if (folderResourceId == null) {
+			url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED);
+		} else {
+			url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId + URL_FOLDERS);
+		}
+
+		Query qry = new Query(url);
+		qry.setStringCustomParameter("title", title);
+		qry.setStringCustomParameter("title-exact", "true");
+		return getFeed(qry, DocumentListFeed.class);
 	}
 
 	/**
@@ -521,8 +1132,6 @@ public class DocumentList {
 
 		DocumentEntry newDocument = new DocumentEntry();
 		
-		newDocument.setFile(file, getMimeType(file));
-		
 		newDocument.setTitle(new PlainTextConstruct(title));
 		newDocument.setHidden(hidden);
 
@@ -530,7 +1139,12 @@ public class DocumentList {
 		if (!convert) {
 			url += "?convert=false";
 		}
-		return service.insert(buildUrl(url), newDocument);
+		if (chunkSize > 0 && file.length() > chunkSize) {
+			return insertResumable(buildUrl(URL_UPLOAD_SESSION + url), file, newDocument);
+		}
+
+		newDocument.setFile(file, getMimeType(file));
+		return insert(buildUrl(url), newDocument);
 	}
 
 	/**
@@ -557,8 +1171,6 @@ public class DocumentList {
 
 		DocumentEntry newDocument = new DocumentEntry();
 		
-        newDocument.setFile(file, getMimeType(file));
-
 		newDocument.setTitle(new PlainTextConstruct(title));
 		newDocument.setHidden(hidden);
 
@@ -566,8 +1178,12 @@ public class DocumentList {
 		if (!convert) {
 			url += "?convert=false";
 		}
+		if (chunkSize > 0 && file.length() > chunkSize) {
+			return insertResumable(buildUrl(URL_UPLOAD_SESSION + url), file, newDocument);
+		}
 
-		return service.insert(buildUrl(url), newDocument);
+        newDocument.setFile(file, getMimeType(file));
+		return insert(buildUrl(url), newDocument);
 	}
 
 	public DocumentListEntry updateFile(String filepath, String title, DocumentListEntry entry, boolean hidden) throws IOException, ServiceException,
@@ -578,10 +1194,20 @@ public class DocumentList {
 
 		File file = new File(filepath);
 
+		// entries restored from the remote tree cache have no media edit link
+		if (entry.getMediaEditLink() == null) {
+			entry = getDocsListEntry(entry.getResourceId());
+		}
+
         entry.setFile(file, getMimeType(file));
         
 		entry.setHidden(hidden);
-		return entry.updateMedia(true);
+		final DocumentListEntry updatedEntry = entry;
+		return send(new Request<DocumentListEntry>() {
+			DocumentListEntry send() throws IOException, ServiceException {
+				return updatedEntry.updateMedia(true);
+			}
+		});
 	}
 	
 	public String getMimeType(File file) {
@@ -618,7 +1244,7 @@ public class DocumentList {
 			feedUrl += "?delete=true";
 		}
 
-		service.delete(buildUrl(feedUrl), getDocsListEntry(resourceId).getEtag());
+		delete(buildUrl(feedUrl), getDocsListEntry(resourceId).getEtag());
 	}
 
 	/**
@@ -638,7 +1264,7 @@ public class DocumentList {
 		}
 
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId + URL_FOLDERS + "/" + resourceId);
-		service.delete(url, getDocsListEntry(resourceId).getEtag());
+		delete(url, getDocsListEntry(resourceId).getEtag());
 	}
 
 	/**
@@ -652,13 +1278,35 @@ public class DocumentList {
 	 * @throws DocumentListException the document list exception
 	 */
 	public void downloadFile(URL exportUrl, String filepath) throws IOException, MalformedURLException, ServiceException, DocumentListException {
+		downloadFile(service, exportUrl, filepath);
+	}
+
+	/**
+	 * Downloads a file using the credentials of a service, so that the
+	 * spreadsheets can be exported with the spreadsheets service while other
+	 * requests keep using the docs service.
+	 *
+	 * @param transport the service to download the file with.
+	 * @param exportUrl the full url of the export link to download the file from.
+	 * @param filepath path and name of the object to be saved as.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws MalformedURLException the malformed url exception
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	private void downloadFile(final MediaService transport, URL exportUrl, String filepath) throws IOException, MalformedURLException, ServiceException,
+			DocumentListException {
 		if (exportUrl == null || filepath == null) {
 			throw new DocumentListException("null passed in for required parameters");
 		}
 
-		MediaContent mc = new MediaContent();
+		final MediaContent mc = new MediaContent();
 		mc.setUri(exportUrl.toString());
-		MediaSource ms = service.getMedia(mc);
+		MediaSource ms = send(new Request<MediaSource>() {
+			MediaSource send() throws IOException, ServiceException {
+				return transport.getMedia(mc);
+			}
+		});
 
 		InputStream inStream = null;
 		FileOutputStream outStream = null;
@@ -667,16 +1315,29 @@ public class DocumentList {
 			inStream = ms.getInputStream();
 			outStream = new FileOutputStream(filepath);
 
-			int c;
-			while ((c = inStream.read()) != -1) {
-				outStream.write(c);
+			// FileChannel.transferFrom copies from a stream channel through a
+			// small temporary buffer, so fill a large direct buffer instead
+			ReadableByteChannel inChannel = Channels.newChannel(inStream);
+			FileChannel outChannel = outStream.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(downloadBufferSize);
+			while (inChannel.read(buffer) != -1) {
+				if (!buffer.hasRemaining()) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						outChannel.write(buffer);
+					}
+					buffer.clear();
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				outChannel.write(buffer);
 			}
 		} finally {
 			if (inStream != null) {
 				inStream.close();
 			}
 			if (outStream != null) {
-				outStream.flush();
 				outStream.close();
 			}
 		}
@@ -701,10 +1362,6 @@ public class DocumentList {
 			throw new DocumentListException("null passed in for required parameters");
 		}
 
-		UserToken docsToken = (UserToken) service.getAuthTokenFactory().getAuthToken();
-		UserToken spreadsheetsToken = (UserToken) spreadsheetsService.getAuthTokenFactory().getAuthToken();
-		service.setUserToken(spreadsheetsToken.getValue());
-
 		HashMap<String, String> parameters = new HashMap<String, String>();
 		parameters.put("key", resourceId.substring(resourceId.lastIndexOf(':') + 1));
 		parameters.put("exportFormat", format);
@@ -717,10 +1374,7 @@ public class DocumentList {
 
 		URL url = buildUrl(SPREADSHEETS_HOST, URL_DOWNLOAD + "/spreadsheets" + URL_CATEGORY_EXPORT, parameters);
 
-		downloadFile(url, filepath);
-
-		// Restore docs token for our DocList client
-		service.setUserToken(docsToken.getValue());
+		downloadFile(spreadsheetsService, url, filepath);
 	}
 
 	/**
@@ -792,7 +1446,7 @@ public class DocumentList {
 		doc.setId(buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId).toString());
 
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderId + URL_FOLDERS);
-		return service.insert(url, doc);
+		return insert(url, doc);
 	}
 
 	/**
@@ -812,7 +1466,7 @@ public class DocumentList {
 
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
 
-		return service.getFeed(url, AclFeed.class);
+		return getFeed(url, AclFeed.class);
 	}
 
 	/**
@@ -838,7 +1492,7 @@ public class DocumentList {
 		entry.setScope(scope);
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
 
-		return service.insert(url, entry);
+		return insert(url, entry);
 	}
 
 	/**
@@ -853,15 +1507,19 @@ public class DocumentList {
 	 * @throws ServiceException the service exception
 	 * @throws DocumentListException the document list exception
 	 */
-	public AclEntry changeAclRole(AclRole role, AclScope scope, String resourceId) throws IOException, MalformedURLException, ServiceException,
+	public AclEntry changeAclRole(final AclRole role, final AclScope scope, String resourceId) throws IOException, MalformedURLException, ServiceException,
 			DocumentListException {
 		if (role == null || scope == null || resourceId == null) {
 			throw new DocumentListException("null passed in for required parameters");
 		}
 
-		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
+		final URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
 
-		return service.update(url, scope, role);
+		return send(new Request<AclEntry>() {
+			AclEntry send() throws IOException, ServiceException {
+				return service.update(url, scope, role);
+			}
+		});
 	}
 
 	/**
@@ -883,7 +1541,7 @@ public class DocumentList {
 
 		URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL + "/" + scope + "%3A" + email);
 
-		service.delete(url);
+		delete(url, null);
 	}
 
 	/**
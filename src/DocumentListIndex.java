@@ -0,0 +1,340 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An index of the documents of a remote folder by title.
+ *
+ * The index is built once from the listing of the folder and kept up to date
+ * as documents are uploaded, so that looking up a document with the same title
+ * does not scan the whole listing. The index is safe to use from several
+ * upload threads.
+ *
+ * The fields of the entries are packed into parallel arrays, one slot per
+ * entry in the order of the listing, and chained by title and by resource id
+ * through arrays of slot numbers, so that an entry costs a few references
+ * instead of the objects of a map entry and a list. The parent ids, which
+ * the entries of a folder have in common, are pooled within the index, so
+ * that they are dropped with it; the titles, which are mostly unique, are
+ * not. The entries are returned as new remote entries built from their slot.
+ */
+public class DocumentListIndex {
+
+	/** The initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The end of a chain. */
+	private static final int NONE = -1;
+
+	/** The pool of the parent ids. */
+	private final StringPool parentIdPool = new StringPool();
+
+	/** The resource ids by slot, null for the removed entries. */
+	private String[] resourceIds;
+
+	/** The titles by slot. */
+	private String[] titles;
+
+	/** The etags by slot. */
+	private String[] etags;
+
+	/** The parent ids by slot, the entries with the same parents share the array. */
+	private String[][] parentIds;
+
+	/** The update times by slot. */
+	private long[] updated;
+
+	/** The content URIs by slot. */
+	private String[] contentUris;
+
+	/** The first slot of each title bucket. */
+	private int[] titleBuckets;
+
+	/** The next slot in the same title bucket by slot. */
+	private int[] titleChains;
+
+	/** The first slot of each resource id bucket. */
+	private int[] idBuckets;
+
+	/** The next slot in the same resource id bucket by slot. */
+	private int[] idChains;
+
+	/** The number of slots used, including the removed entries. */
+	private int length;
+
+	/** The number of entries. */
+	private int size;
+
+	/** The latches of the reserved titles, counted down when they are released. */
+	private final ConcurrentMap<String, CountDownLatch> reservations = new ConcurrentHashMap<String, CountDownLatch>();
+
+	/**
+	 * Constructor.
+	 */
+	public DocumentListIndex() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param entries the entries to index
+	 */
+	public DocumentListIndex(List<RemoteEntry> entries) {
+		allocate(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, entries.size())) << 1));
+		for (RemoteEntry entry : entries) {
+			add(entry);
+		}
+	}
+
+	/**
+	 * Adds an entry, replacing the entry with the same resource id if there is one.
+	 *
+	 * @param entry the entry
+	 */
+	public synchronized void add(RemoteEntry entry) {
+		remove(entry.getResourceId());
+		if (length == resourceIds.length) {
+			// reclaim the removed slots before growing
+			rebuild(size < length / 2 ? resourceIds.length : resourceIds.length * 2);
+		}
+		int slot = length++;
+		String[] parents = entry.getParentIds();
+		if (slot > 0 && Arrays.equals(parents, parentIds[slot - 1])) {
+			parents = parentIds[slot - 1];
+		} else if (parents.length > 0) {
+			parents = parents.clone();
+			for (int i = 0; i < parents.length; i++) {
+				parents[i] = parentIdPool.intern(parents[i]);
+			}
+		}
+		resourceIds[slot] = entry.getResourceId();
+		titles[slot] = entry.getTitle();
+		etags[slot] = entry.getEtag();
+		parentIds[slot] = parents;
+		updated[slot] = entry.getUpdated();
+		contentUris[slot] = entry.getContentUri();
+		link(slot);
+		size++;
+	}
+
+	/**
+	 * Removes the entry with the resource id if there is one.
+	 *
+	 * @param resourceId the resource id
+	 */
+	public synchronized void remove(String resourceId) {
+		for (int slot = idBuckets[bucket(resourceId)]; slot != NONE; slot = idChains[slot]) {
+			if (resourceId.equals(resourceIds[slot])) {
+				resourceIds[slot] = null;
+				titles[slot] = null;
+				etags[slot] = null;
+				parentIds[slot] = null;
+				contentUris[slot] = null;
+				size--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the first entry with the title.
+	 *
+	 * @param title the title
+	 *
+	 * @return the entry, null if not found
+	 */
+	public synchronized RemoteEntry findByTitle(String title) {
+		return findByTitle(title, null);
+	}
+
+	/**
+	 * Finds the first entry with the title and type.
+	 *
+	 * @param title the title
+	 * @param type the type, such as "document" or "folder", null for any type
+	 *
+	 * @return the entry, null if not found
+	 */
+	public synchronized RemoteEntry findByTitle(String title, String type) {
+		int first = NONE;
+		// the chains run from the last slot added, the first entry has the lowest slot
+		for (int slot = titleBuckets[bucket(title)]; slot != NONE; slot = titleChains[slot]) {
+			if (title.equals(titles[slot]) && (type == null || isType(resourceIds[slot], type))) {
+				first = slot;
+			}
+		}
+		return first == NONE ? null : get(first);
+	}
+
+	/**
+	 * Reserves a title, waiting while it is reserved by another thread, so
+	 * that the lookup of the title and the addition of the document uploaded
+	 * with it are not interleaved with those of another upload.
+	 *
+	 * @param title the title
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void reserve(String title) throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		CountDownLatch other = reservations.putIfAbsent(title, latch);
+		while (other != null) {
+			other.await();
+			other = reservations.putIfAbsent(title, latch);
+		}
+	}
+
+	/**
+	 * Releases a title reserved by the current thread.
+	 *
+	 * @param title the title
+	 */
+	public void release(String title) {
+		CountDownLatch latch = reservations.remove(title);
+		if (latch != null) {
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * Gets all the entries.
+	 *
+	 * @return a copy of the list of entries, in the order of the listing
+	 */
+	public synchronized List<RemoteEntry> getEntries() {
+		List<RemoteEntry> results = new ArrayList<RemoteEntry>(size);
+		for (int slot = 0; slot < length; slot++) {
+			if (resourceIds[slot] != null) {
+				results.add(get(slot));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the entry of a slot.
+	 *
+	 * @param slot the slot
+	 *
+	 * @return the entry
+	 */
+	private RemoteEntry get(int slot) {
+		return new RemoteEntry(resourceIds[slot], titles[slot], etags[slot], parentIds[slot], updated[slot], contentUris[slot]);
+	}
+
+	/**
+	 * Checks if a resource id is of a type.
+	 *
+	 * @param resourceId the resource id, such as "document:abc"
+	 * @param type the type
+	 *
+	 * @return true, if the resource id starts with the type and a colon
+	 */
+	private static boolean isType(String resourceId, String type) {
+		return resourceId.length() > type.length() && resourceId.charAt(type.length()) == ':' && resourceId.startsWith(type);
+	}
+
+	/**
+	 * Gets the bucket of a title or a resource id.
+	 *
+	 * @param key the title or the resource id
+	 *
+	 * @return the bucket
+	 */
+	private int bucket(String key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & (titleBuckets.length - 1);
+	}
+
+	/**
+	 * Links a slot into the chains of its title and resource id.
+	 *
+	 * @param slot the slot
+	 */
+	private void link(int slot) {
+		int title = bucket(titles[slot]);
+		titleChains[slot] = titleBuckets[title];
+		titleBuckets[title] = slot;
+		int id = bucket(resourceIds[slot]);
+		idChains[slot] = idBuckets[id];
+		idBuckets[id] = slot;
+	}
+
+	/**
+	 * Allocates empty arrays.
+	 *
+	 * @param capacity the number of slots, a power of two
+	 */
+	private void allocate(int capacity) {
+		resourceIds = new String[capacity];
+		titles = new String[capacity];
+		etags = new String[capacity];
+		parentIds = new String[capacity][];
+		updated = new long[capacity];
+		contentUris = new String[capacity];
+		titleBuckets = new int[capacity];
+		titleChains = new int[capacity];
+		idBuckets = new int[capacity];
+		idChains = new int[capacity];
+		Arrays.fill(titleBuckets, NONE);
+		Arrays.fill(idBuckets, NONE);
+		length = 0;
+	}
+
+	/**
+	 * Moves the entries into new arrays without the removed slots, keeping their order.
+	 *
+	 * @param capacity the number of slots, a power of two
+	 */
+	private void rebuild(int capacity) {
+		String[] oldResourceIds = resourceIds;
+		String[] oldTitles = titles;
+		String[] oldEtags = etags;
+		String[][] oldParentIds = parentIds;
+		long[] oldUpdated = updated;
+		String[] oldContentUris = contentUris;
+		int oldLength = length;
+		allocate(capacity);
+		for (int i = 0; i < oldLength; i++) {
+			if (oldResourceIds[i] != null) {
+				int slot = length++;
+				resourceIds[slot] = oldResourceIds[i];
+				titles[slot] = oldTitles[i];
+				etags[slot] = oldEtags[i];
+				parentIds[slot] = oldParentIds[i];
+				updated[slot] = oldUpdated[i];
+				contentUris[slot] = oldContentUris[i];
+				link(slot);
+			}
+		}
+	}
+
+}
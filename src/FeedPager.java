@@ -0,0 +1,131 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.gdata.data.Link;
+import com.google.gdata.data.docs.DocumentListFeed;
+import com.google.gdata.util.ServiceException;
+
+/**
+ * Pages through a docs list feed, requesting the next page while the current
+ * one is being processed, so that the round trips of the pages overlap with
+ * their processing instead of adding up.
+ */
+public class FeedPager {
+
+	/** The document list requesting the pages. */
+	private final DocumentList documentList;
+
+	/** The executor requesting the next pages. */
+	private final ExecutorService executor;
+
+	/** The first page, null once it has been returned. */
+	private DocumentListFeed firstPage;
+
+	/** The request of the next page, null if there is no next page. */
+	private Future<DocumentListFeed> nextPage;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param documentList the document list requesting the pages
+	 * @param firstPage the first page of the feed
+	 * @param executor the executor requesting the next pages
+	 */
+	public FeedPager(DocumentList documentList, DocumentListFeed firstPage, ExecutorService executor) {
+		this.documentList = documentList;
+		this.firstPage = firstPage;
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the next page and starts requesting the page after it.
+	 *
+	 * @return the page, null if there are no more pages
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	public DocumentListFeed next() throws IOException, ServiceException, DocumentListException {
+		DocumentListFeed page = null;
+		if (firstPage != null) {
+			page = firstPage;
+			firstPage = null;
+		} else if (nextPage != null) {
+			page = get(nextPage);
+			nextPage = null;
+		}
+		if (page == null) {
+			return null;
+		}
+
+		final Link link = page.getNextLink();
+		if (link != null && page.getEntries().size() > 0) {
+			nextPage = executor.submit(new Callable<DocumentListFeed>() {
+				@Override
+				public DocumentListFeed call() throws Exception {
+					return documentList.getDocsListFeed(link);
+				}
+			});
+		}
+		return page;
+	}
+
+	/**
+	 * Cancels the request of the next page if the remaining pages are not needed.
+	 */
+	public void close() {
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+	}
+
+	/**
+	 * Waits for the request of a page.
+	 *
+	 * @param request the request
+	 * @return the page
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 * @throws DocumentListException the document list exception
+	 */
+	private static DocumentListFeed get(Future<DocumentListFeed> request) throws IOException, ServiceException, DocumentListException {
+		try {
+			return request.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the next page");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof ServiceException) {
+				throw (ServiceException) cause;
+			} else if (cause instanceof DocumentListException) {
+				throw (DocumentListException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause.getMessage());
+		}
+	}
+
+}
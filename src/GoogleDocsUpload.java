@@ -19,13 +19,29 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.gdata.data.DateTime;
 import com.google.gdata.data.docs.DocumentListEntry;
 import com.google.gdata.data.docs.DocumentListFeed;
 import com.google.gdata.util.AuthenticationException;
@@ -39,6 +55,7 @@ import com.google.gdata.util.ServiceForbiddenException;
  * 
  * Usage: java -jar google-docs-upload.jar
  * Usage: java -jar google-docs-upload.jar <path> --recursive
+ * Usage: java -jar google-docs-upload.jar <path> --download --remote-folder <folder>
  * Usage: java -jar google-docs-upload.jar <path> --username <username> --password <password>
  * Usage: java -jar google-docs-upload.jar <path> --auth-sub <token>
  * [--username <username>]       Username for a Google account.
@@ -52,6 +69,19 @@ import com.google.gdata.util.ServiceForbiddenException;
  * [--skip-all]                  Skip all documents if there there are already documents with the same names.
  * [--replace-all]               Replace all documents in Google Docs, which have the same names as the uploaded.
  * [--disable-retries]           Disable auto-retries in the cases of failed upload.
+ * [--threads <n>]               Upload or download up to n files in parallel (default = 1).
+ * [--scan-threads <n>]          List the local folders with n threads (default = 1).
+ * [--virtual-threads]           Upload every file in its own virtual thread (Java 21+), at most --threads at a time (default = 64).
+ * [--journal <file>]            Journal the uploaded files (default = ~/.google-docs-upload.journal with --resume or --sync).
+ * [--resume]                    Skip the files journaled as uploaded and not modified since.
+ * [--sync]                      Upload only the new files and update the documents of the files changed since they were journaled.
+ * [--cache [<file>]]            Cache the remote folder listings between runs (default = ~/.google-docs-upload-<username>.cache).
+ * [--download]                  Download the documents of the remote folder to the path instead of uploading.
+ * [--buffer-size <kb>]          The size of the download buffer in kilobytes (default = 1024).
+ * [--chunk-size <kb>]           Upload the larger files in resumable chunks of the given size (default = 5120, 0 = disabled).
+ * [--page-size <n>]             List the remote folders n entries per request (default = set by the server).
+ * [--connections <n>]           Keep up to n idle connections alive per host (default = 5 or --threads).
+ * [--connection-stats]          Print the number of requests and the times of the connects and TLS handshakes.
  * [--auth-sub <token>]          AuthSub token.
  * [--auth-protocol <protocol>]  The protocol to use with authentication.
  * [--auth-host <host:port>]     The host of the auth server to use.
@@ -69,16 +99,44 @@ public class GoogleDocsUpload {
 	/** The document list. */
 	private DocumentList documentList;
 	
+	/** The upload journal, null if disabled. */
+	private UploadJournal uploadJournal;
+	
+	/** The remote tree cache, null if disabled. */
+	private RemoteTreeCache remoteTreeCache;
+	
+	/** The executor running the file uploads or downloads in parallel, null if they are sequential. */
+	private ExecutorService uploadExecutor;
+	
+	/** The permits of the uploads or downloads submitted to the executor and not yet completed, null if they are sequential. */
+	private Semaphore pendingUploads;
+	
+	/** The maximum number of uploads or downloads submitted to the executor and not yet completed. */
+	private int maxPendingUploads;
+	
+	/** The number of documents uploaded or downloaded by the executor since the last wait. */
+	private final AtomicInteger parallelUploads = new AtomicInteger();
+	
+	/** The executor creating the remote folders and listing them in parallel, null if they are sequential. */
+	private ExecutorService folderExecutor;
+	
+	/** The remote folders found or being created, by path, so that each of them is requested once. */
+	private ConcurrentMap<String, Future<RemoteFolder>> remoteFolders = new ConcurrentHashMap<String, Future<RemoteFolder>>();
+	
+	/** The graph of all the remote folders, null until it is listed. */
+	private RemoteFolderGraph remoteFolderGraph;
+	
+	/** The listings of the docs of the remote folders, by path, so that each of them is listed once and then kept up to date by the uploads. */
+	private ConcurrentMap<String, Future<DocumentListIndex>> remoteDocLists = new ConcurrentHashMap<String, Future<DocumentListIndex>>();
+	
 	/** The output stream *. */
 	private static PrintWriter out;
 	
-	/** The file filter. */
-	private static FileFilter fileFilter = new FileFilter() {		
-		@Override
-		public boolean accept(File file) {
-			return file.isFile();
-		}
-	};
+	/** The output buffer of the current upload worker, so that the messages of a file are printed together. */
+	private static ThreadLocal<StringBuffer> outBuffer = new ThreadLocal<StringBuffer>();
+	
+	/** The lock serializing the interactive prompts of the upload workers. */
+	private static final Object promptLock = new Object();
 	
 	/** The folder filter. */
 	private static FileFilter folderFilter = new FileFilter() {		
@@ -119,6 +177,14 @@ public class GoogleDocsUpload {
 		FORMATS_MAP.put("pdf", "pdf");
 	}	
 	
+	/** Google Docs formats -> download formats *. */
+	public static Map<String, String> DOWNLOAD_FORMATS_MAP; {
+		DOWNLOAD_FORMATS_MAP = new HashMap<String, String>();
+		DOWNLOAD_FORMATS_MAP.put("document", "doc");
+		DOWNLOAD_FORMATS_MAP.put("spreadsheet", "xls");
+		DOWNLOAD_FORMATS_MAP.put("presentation", "ppt");
+	}
+	
 	/** Google Docs formats -> size limits *. */
 	public static Map<String, Long> SIZE_LIMITS; {
 		SIZE_LIMITS = new HashMap<String, Long>();		
@@ -128,6 +194,15 @@ public class GoogleDocsUpload {
 		SIZE_LIMITS.put("pdf", 10000000L);
 	}	
 	
+	/** The default maximum number of concurrent uploads with virtual threads. */
+	public static final int DEFAULT_VIRTUAL_THREADS_UPLOADS = 64;
+	
+	/** The default number of threads creating the remote folders. */
+	public static final int DEFAULT_FOLDER_THREADS = 4;
+	
+	/** The number of uploads submitted and not yet completed per upload thread, beyond which the walk waits. */
+	public static final int PENDING_UPLOADS_PER_THREAD = 2;
+	
 	/** Welcome message, introducing the program. */
 	protected static final String[] WELCOME_MESSAGE = { "",
 		"Google Docs Upload 1.4.7",
@@ -141,6 +216,7 @@ public class GoogleDocsUpload {
 		"",
 		"Usage: java -jar google-docs-upload.jar",
 		"Usage: java -jar google-docs-upload.jar <path> --recursive",
+		"Usage: java -jar google-docs-upload.jar <path> --download --remote-folder <folder>",
 		"Usage: java -jar google-docs-upload.jar <path> --username <username> --password <password>",
 		"Usage: java -jar google-docs-upload.jar <path> --auth-sub <token>",
 		"    [--username <username>]       Username for a Google account.",
@@ -154,6 +230,19 @@ public class GoogleDocsUpload {
 		"    [--skip-all]                  Skip all documents if there there are already documents with the same names.",		
 		"    [--replace-all]               Replace all documents in Google Docs, which have the same names as the uploaded.",		
 		"    [--disable-retries]           Disable auto-retries in the cases of failed upload.",		
+		"    [--threads <n>]               Upload or download up to n files in parallel (default = 1).",		
+		"    [--scan-threads <n>]          List the local folders with n threads (default = 1).",		
+		"    [--virtual-threads]           Upload every file in its own virtual thread (Java 21+), at most --threads at a time (default = 64).",		
+		"    [--journal <file>]            Journal the uploaded files (default = ~/.google-docs-upload.journal with --resume or --sync).",
+		"    [--resume]                    Skip the files journaled as uploaded and not modified since.",
+		"    [--sync]                      Upload only the new files and update the documents of the files changed since they were journaled.",
+		"    [--cache [<file>]]            Cache the remote folder listings between runs (default = ~/.google-docs-upload-<username>.cache).",
+		"    [--download]                  Download the documents of the remote folder to the path instead of uploading.",
+		"    [--buffer-size <kb>]          The size of the download buffer in kilobytes (default = 1024).",
+		"    [--chunk-size <kb>]           Upload the larger files in resumable chunks of the given size (default = 5120, 0 = disabled).",
+		"    [--page-size <n>]             List the remote folders n entries per request (default = set by the server).",
+		"    [--connections <n>]           Keep up to n idle connections alive per host (default = 5 or --threads).",
+		"    [--connection-stats]          Print the number of requests and the times of the connects and TLS handshakes.",
 		"    [--auth-sub <token>]          AuthSub token.",
 		"    [--auth-protocol <protocol>]  The protocol to use with authentication.",
 		"    [--auth-host <host:port>]     The host of the auth server to use.",
@@ -175,17 +264,98 @@ public class GoogleDocsUpload {
 	private static boolean optionHideAll;
 
 	/** The option add all. */
-	private static boolean optionAddAll;
+	private static volatile boolean optionAddAll;
 
 	/** The option skip all. */
-	private static boolean optionSkipAll;
+	private static volatile boolean optionSkipAll;
 
 	/** The option replace all. */
-	private static boolean optionReplaceAll;
+	private static volatile boolean optionReplaceAll;
 
 	/** The option disable retries. */
 	private static boolean optionDisableRetries;
 
+	/** The option threads. */
+	private static int optionThreads = 1;
+
+	/** The option resume. */
+	private static boolean optionResume;
+
+	/** The option sync. */
+	private static boolean optionSync;
+
+	/** The option scan threads. */
+	private static int optionScanThreads = 1;
+
+	/** The option virtual threads. */
+	private static boolean optionVirtualThreads;
+
+	/** The option connection stats. */
+	private static boolean optionConnectionStats;
+
+	/** The option download. */
+	private static boolean optionDownload;
+
+	/**
+	 * A remote folder with the index of its sub folders, which is taken from
+	 * the remote folder graph when a sub folder is first looked up.
+	 */
+	protected static class RemoteFolder {
+		
+		/** The remote folder, null for the root. */
+		protected final RemoteEntry entry;
+		
+		/** The remote sub folders, null until they are listed. */
+		protected DocumentListIndex subFolders;
+		
+		/**
+		 * Constructor.
+		 * 
+		 * @param entry the remote folder
+		 * @param subFolders the remote sub folders, null to list them when needed
+		 */
+		protected RemoteFolder(RemoteEntry entry, DocumentListIndex subFolders) {
+			this.entry = entry;
+			this.subFolders = subFolders;
+		}
+		
+	}
+	
+	/**
+	 * A local folder being uploaded with its remote counterpart and listing,
+	 * which are requested in parallel and waited for by the uploads of its files.
+	 * The listing is requested with the first file to upload, so that the
+	 * folders without files are not listed.
+	 */
+	protected static class FolderContext {
+		
+		/** The local folder. */
+		protected final File folder;
+		
+		/** The path of the remote folder. */
+		protected final String remotePath;
+		
+		/** The remote folder. */
+		protected final Future<RemoteFolder> remoteFolder;
+		
+		/** The remote docs, null until the first file of the folder is uploaded. */
+		protected Future<DocumentListIndex> remoteDocs;
+		
+		/**
+		 * Constructor.
+		 * 
+		 * @param folder the local folder
+		 * @param remotePath the path of the remote folder
+		 * @param remoteFolder the remote folder
+		 */
+		protected FolderContext(File folder, String remotePath, Future<RemoteFolder> remoteFolder) {
+			this.folder = folder;
+			this.remotePath = remotePath;
+			this.remoteFolder = remoteFolder;
+		}
+		
+	}
+	
 	/**
 	 * Constructor.
 	 * 
@@ -201,6 +371,23 @@ public class GoogleDocsUpload {
 		setDocumentList(new DocumentList(appName, authProtocol, authHost, protocol, host));
 	}
 	
+	/**
+	 * Constructor.
+	 * 
+	 * @param appName the app name
+	 * @param authProtocol the auth protocol
+	 * @param authHost the auth host
+	 * @param protocol the protocol
+	 * @param host the host
+	 * @param connectionSource the source of the pooled connections, null for the default connections
+	 * 
+	 * @throws DocumentListException the document list exception
+	 */
+	public GoogleDocsUpload(String appName, String authProtocol, String authHost, String protocol, String host, PooledConnectionSource connectionSource)
+			throws DocumentListException {
+		setDocumentList(new DocumentList(appName, authProtocol, authHost, protocol, host, connectionSource));
+	}
+	
 	/**
 	 * Runs the application.
 	 *
@@ -219,6 +406,15 @@ public class GoogleDocsUpload {
 		String protocol = parser.getValue("protocol");
 		String host = parser.getValue("host", "s");
 		String remoteFolder = parser.getValue("remote-folder", "rf");
+		String threads = parser.getValue("threads", "t");
+		String scanThreads = parser.getValue("scan-threads", "st");
+		String cache = parser.getValue("cache", "c");
+		boolean useCache = parser.containsKey("cache", "c");
+		String journal = parser.getValue("journal", "j");
+		String bufferSize = parser.getValue("buffer-size", "bs");
+		String connections = parser.getValue("connections", "cn");
+		String chunkSize = parser.getValue("chunk-size", "cs");
+		String pageSize = parser.getValue("page-size", "ps");
 		boolean help = parser.containsKey("help", "h");
 		
 		setOptionRecursive(parser.containsKey("recursive", "r"));
@@ -229,6 +425,35 @@ public class GoogleDocsUpload {
 		setOptionSkipAll(parser.containsKey("skip-all", "sa"));
 		setOptionReplaceAll(parser.containsKey("replace-all", "ra"));
 		setOptionDisableRetries(parser.containsKey("disable-retries", "dr"));
+		setOptionVirtualThreads(parser.containsKey("virtual-threads", "vt"));
+		setOptionResume(parser.containsKey("resume"));
+		setOptionSync(parser.containsKey("sync"));
+		setOptionDownload(parser.containsKey("download", "dl"));
+		setOptionConnectionStats(parser.containsKey("connection-stats", "cst"));
+		
+		if (threads != null) {
+			try {
+				setOptionThreads(Integer.parseInt(threads));
+				if (getOptionThreads() < 1) {
+					throw new NumberFormatException("the number of threads must be positive");
+				}
+			} catch (NumberFormatException e) {
+				printLine("Invalid number of threads: " + threads);
+				System.exit(1);
+			}
+		}
+		
+		if (scanThreads != null) {
+			try {
+				setOptionScanThreads(Integer.parseInt(scanThreads));
+				if (getOptionScanThreads() < 1) {
+					throw new NumberFormatException("the number of scan threads must be positive");
+				}
+			} catch (NumberFormatException e) {
+				printLine("Invalid number of scan threads: " + scanThreads);
+				System.exit(1);
+			}
+		}
 		
 		String path = null;
 		
@@ -276,7 +501,64 @@ public class GoogleDocsUpload {
 			}
 		}
 		
-		GoogleDocsUpload app = new GoogleDocsUpload("google-docs-upload", authProtocol, authHost, protocol, host);
+		int maxConnections = Math.max(PooledConnectionSource.DEFAULT_MAX_CONNECTIONS, getOptionThreads());
+		try {
+			if (connections != null) {
+				maxConnections = Integer.parseInt(connections);
+			}
+		} catch (NumberFormatException e) {
+			printLine("Invalid number of connections: " + connections);
+			System.exit(1);
+		}
+		
+		// the keep-alive cache of the JDK is left to its defaults unless asked for or too small for the upload threads
+		if (connections != null || maxConnections > PooledConnectionSource.DEFAULT_MAX_CONNECTIONS) {
+			PooledConnectionSource.configureKeepAlive(maxConnections);
+		}
+		// the connections are timed only when the stats are asked for, they are opened by the JDK otherwise
+		PooledConnectionSource connectionSource = isOptionConnectionStats() ? new PooledConnectionSource() : null;
+		GoogleDocsUpload app = new GoogleDocsUpload("google-docs-upload", authProtocol, authHost, protocol, host, connectionSource);
+		if (isOptionDisableRetries()) {
+			app.getDocumentList().setMaxRetries(0);
+		}
+		
+		if (chunkSize != null) {
+			try {
+				app.getDocumentList().setChunkSize(Long.parseLong(chunkSize) * 1024);
+			} catch (NumberFormatException e) {
+				printLine("Invalid chunk size: " + chunkSize);
+				System.exit(1);
+			}
+		}
+		
+		if (pageSize != null) {
+			try {
+				app.getDocumentList().setPageSize(Integer.parseInt(pageSize));
+			} catch (NumberFormatException e) {
+				printLine("Invalid page size: " + pageSize);
+				System.exit(1);
+			}
+		}
+		if (app.getDocumentList().getChunkSize() > 0 && !isOptionDownload()) {
+			// the sessions are saved only when the files are uploaded in resumable chunks
+			UploadSessions uploadSessions = new UploadSessions(new File(System.getProperty("user.home"), ".google-docs-upload.sessions"),
+					username != null ? username : "authsub");
+			try {
+				uploadSessions.load();
+			} catch (Exception e) {
+				printLine("Failed to load the upload sessions: " + e.getMessage());
+			}
+			app.getDocumentList().setUploadSessions(uploadSessions);
+		}
+		
+		if (bufferSize != null) {
+			try {
+				app.getDocumentList().setDownloadBufferSize(Integer.parseInt(bufferSize) * 1024);
+			} catch (Exception e) {
+				printLine("Invalid buffer size: " + bufferSize);
+				System.exit(1);
+			}
+		}
 
 		if (password != null) {
 			try {
@@ -294,6 +576,31 @@ public class GoogleDocsUpload {
 			}
 		}
 		
+		if (journal == null && (isOptionResume() || isOptionSync())) {
+			journal = new File(System.getProperty("user.home"), ".google-docs-upload.journal").getPath();
+		}
+		if (journal != null) {
+			app.setUploadJournal(new UploadJournal(new File(journal), username != null ? username : "authsub"));
+			try {
+				app.getUploadJournal().load();
+			} catch (Exception e) {
+				printLine("Failed to load the journal " + journal + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		
+		if (useCache) {
+			if (cache == null) {
+				cache = new File(System.getProperty("user.home"), ".google-docs-upload-" + (username != null ? username : "authsub") + ".cache").getPath();
+			}
+			app.setRemoteTreeCache(new RemoteTreeCache(new File(cache)));
+			try {
+				app.getRemoteTreeCache().load();
+			} catch (Exception e) {
+				printLine("Failed to load the cache " + cache + ": " + e.getMessage());
+			}
+		}
+		
 		if (path == null) {
 			if (scanner == null) {
 				scanner = new Scanner(System.in);
@@ -303,7 +610,11 @@ public class GoogleDocsUpload {
 			path = scanner.nextLine();						
 		}
 
-		app.upload(path, remoteFolder);
+		if (isOptionDownload()) {
+			app.download(path, remoteFolder);
+		} else {
+			app.upload(path, remoteFolder);
+		}
 	}
 
 	/**
@@ -342,22 +653,323 @@ public class GoogleDocsUpload {
 			System.exit(1);			
 		}
 		
+		try {
+			uploadPath(file, path, remoteFolder);
+			printConnectionStats();
+		} finally {
+			if (getUploadJournal() != null) {
+				try {
+					getUploadJournal().close();
+				} catch (Exception e) {
+					printLine("Failed to close the journal: " + e.getMessage());
+				}
+			}
+			if (getRemoteTreeCache() != null) {
+				try {
+					getRemoteTreeCache().save();
+				} catch (Exception e) {
+					printLine("Failed to save the cache: " + e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Downloads the documents of a remote folder.
+	 * 
+	 * @param path the local folder to download the documents to
+	 * @param remoteFolder the remote folder
+	 */
+	public void download(String path, String remoteFolder) {
+		File folder = new File(path);
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			printLine("Failed to create the folder " + path);
+			System.exit(1);
+		}
+		
+		try {
+			RemoteEntry remoteFolderEntry = null;
+			if (remoteFolder != null && remoteFolder.length() > 0) {
+				try {
+					remoteFolderEntry = getRemoteFolderByPath(remoteFolder, false);
+				} catch (DocumentListException e) {
+					printLine(e.getMessage());
+					System.exit(1);
+				}
+				if (remoteFolderEntry == null) {
+					printLine("Remote folder " + remoteFolder + " doesn't exist");
+					System.exit(1);
+				}
+			}
+			String message = "\nDownloading" + (isOptionRecursive() ? " recursively" : "") + " the remote folder ";
+			printLine(message + (remoteFolderEntry == null ? "/" : remoteFolder) + " to " + path + "\n");
+			
+			int[] counters = new int[3];
+			counters[0] = 0;
+			counters[1] = 0;
+			counters[2] = 0;
+			if (getOptionThreads() > 1) {
+				startUploadExecutor(Executors.newFixedThreadPool(getOptionThreads()), getOptionThreads());
+			}
+			downloadFolder(remoteFolderEntry, folder, counters);
+			counters[0] += waitForUploads();
+			if (counters[2] > 0) {
+				printLine("\nFiles skipped as up to date: " + counters[2]);
+			}
+			printLine("\nFiles downloaded: " + counters[0] + " out of " + counters[1]);
+			printConnectionStats();
+		} finally {
+			if (getUploadExecutor() != null) {
+				getUploadExecutor().shutdown();
+				setUploadExecutor(null);
+				pendingUploads = null;
+			}
+			if (getRemoteTreeCache() != null) {
+				try {
+					getRemoteTreeCache().save();
+				} catch (Exception e) {
+					printLine("Failed to save the cache: " + e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Prints out the number of requests and of the secure connections opened for them.
+	 */
+	protected void printConnectionStats() {
+		PooledConnectionSource connectionSource = getDocumentList().getConnectionSource();
+		if (connectionSource != null && connectionSource.getHandshakes() > 0) {
+			printLine("Requests: " + connectionSource.getRequests() + ", TLS handshakes: " + connectionSource.getHandshakes() + " (average connect "
+					+ connectionSource.getAverageConnectTime() + " ms, handshake " + connectionSource.getAverageHandshakeTime() + " ms)");
+		}
+	}
+	
+	/**
+	 * Downloads the documents of a remote folder, and of its sub folders if recursive.
+	 * The documents are downloaded in parallel if the upload executor is set.
+	 * 
+	 * @param remoteFolder the remote folder, null for the root
+	 * @param folder the local folder
+	 * @param counters the counters of the files downloaded, found and skipped as up to date
+	 */
+	protected void downloadFolder(RemoteEntry remoteFolder, File folder, int[] counters) {
+		DocumentListIndex docs = getDocsFromFolder(remoteFolder);
+		DocumentListIndex subFolders = null;
+		if (isOptionRecursive()) {
+			try {
+				subFolders = getSubFolders(remoteFolder);
+			} catch (DocumentListException e) {
+				printLine(" - Skipped the sub folders of " + folder.getAbsolutePath() + ": " + e.getMessage());
+			}
+		}
+		Set<String> names = new HashSet<String>();
+		for (RemoteEntry doc : docs.getEntries()) {
+			counters[1]++;
+			File file = getDownloadFile(doc, folder, names);
+			if (isDownloaded(doc, file)) {
+				counters[2]++;
+				continue;
+			}
+			counters[0] += submitDownload(doc, file, "[" + counters[1] + "] ");
+		}
+		
+		if (subFolders != null) {
+			for (RemoteEntry remoteSubFolder : subFolders.getEntries()) {
+				File subFolder = getDownloadFile(remoteSubFolder, folder, names);
+				if (!subFolder.isDirectory() && !subFolder.mkdirs()) {
+					printLine(" - Skipped: failed to create the folder " + subFolder.getAbsolutePath());
+					continue;
+				}
+				downloadFolder(remoteSubFolder, subFolder, counters);
+			}
+		}
+	}
+	
+	/**
+	 * Downloads a document, either immediately or in parallel if the upload executor is set.
+	 * 
+	 * @param doc the document list entry
+	 * @param file the local file
+	 * @param progress the progress prefix of the messages
+	 * 
+	 * @return 1 if the document has been downloaded immediately, 0 otherwise
+	 */
+	protected int submitDownload(final RemoteEntry doc, final File file, final String progress) {
+		if (getUploadExecutor() == null) {
+			printLine(progress + file.getAbsolutePath());
+			return downloadFile(doc, file) ? 1 : 0;
+		}
+		submitParallel(new Callable<RemoteEntry>() {
+			@Override
+			public RemoteEntry call() {
+				startBufferedOutput();
+				try {
+					printLine(progress + file.getAbsolutePath());
+					return downloadFile(doc, file) ? doc : null;
+				} finally {
+					flushBufferedOutput();
+				}
+			}
+		});
+		return 0;
+	}
+	
+	/**
+	 * Checks if a document has already been downloaded and has not been updated since.
+	 * 
+	 * @param doc the document list entry
+	 * @param file the local file
+	 * 
+	 * @return true, if the local file is up to date
+	 */
+	protected boolean isDownloaded(RemoteEntry doc, File file) {
+		// compare in seconds, as some file systems do not store milliseconds
+		return doc.getUpdated() != 0 && file.isFile() && file.lastModified() / 1000 >= doc.getUpdated() / 1000;
+	}
+	
+	/**
+	 * Gets the local file to download a document or a folder to.
+	 * 
+	 * @param doc the document list entry
+	 * @param folder the local folder
+	 * @param names the names already used in the local folder, the name of the file is added to them
+	 * 
+	 * @return the file
+	 */
+	protected File getDownloadFile(RemoteEntry doc, File folder, Set<String> names) {
+		String title = doc.getTitle().replaceAll("[\\\\/:*?\"<>|]", "_");
+		if (title.isEmpty()) {
+			title = "Unnamed";
+		}
+		String extension = DOWNLOAD_FORMATS_MAP.get(doc.getType());
+		if (extension == null && doc.getType().equals("pdf") && !title.toLowerCase().endsWith(".pdf")) {
+			extension = "pdf";
+		}
+		extension = extension == null ? "" : "." + extension;
+		String name = title + extension;
+		for (int i = 2; !names.add(name.toLowerCase()); i++) {
+			name = title + " (" + i + ")" + extension;
+		}
+		return new File(folder, name);
+	}
+	
+	/**
+	 * Downloads a document, exporting it if it has been converted into the Google Docs format.
+	 * 
+	 * @param doc the document list entry
+	 * @param file the local file
+	 * 
+	 * @return true, if successful
+	 */
+	protected boolean downloadFile(RemoteEntry doc, File file) {
+		String type = doc.getType();
+		String format = DOWNLOAD_FORMATS_MAP.get(type);
+		// download to a temporary file, so that an interrupted download is not taken as up to date
+		File tmp = new File(file.getPath() + ".part");
+		try {
+			if (type.equals("document")) {
+				getDocumentList().downloadDocument(doc.getResourceId(), tmp.getPath(), getDocumentList().getDownloadFormat(doc.getResourceId(), format));
+			} else if (type.equals("spreadsheet")) {
+				getDocumentList().downloadSpreadsheet(doc.getResourceId(), tmp.getPath(), getDocumentList().getDownloadFormat(doc.getResourceId(), format));
+			} else if (type.equals("presentation")) {
+				getDocumentList().downloadPresentation(doc.getResourceId(), tmp.getPath(), getDocumentList().getDownloadFormat(doc.getResourceId(), format));
+			} else if (doc.getContentUri() != null) {
+				// the files uploaded without conversion are downloaded as they are
+				getDocumentList().downloadFile(new URL(doc.getContentUri()), tmp.getPath());
+			} else {
+				printLine(" - Skipped: the document has no content to download");
+				return false;
+			}
+		} catch (Exception e) {
+			printLine(" - Download error: " + e.getMessage());
+			tmp.delete();
+			printLine(" - Skipped");
+			return false;
+		}
+		
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			printLine(" - Skipped: failed to rename " + tmp.getAbsolutePath());
+			tmp.delete();
+			return false;
+		}
+		if (doc.getUpdated() != 0) {
+			file.setLastModified(doc.getUpdated());
+		}
+		return true;
+	}
+	
+	/**
+	 * Uploads an existing file or folder.
+	 * 
+	 * @param file the file or folder to upload
+	 * @param path the path as specified by the user
+	 * @param remoteFolder the remote folder
+	 */
+	protected void uploadPath(File file, String path, String remoteFolder) {
 		if (file.isDirectory()) {
 			String message = "\nUploading" + (isOptionRecursive() ? " recursively" : "") + " the folder " + path;
 			if (remoteFolder != null && remoteFolder.length() > 0) {
 				 message += " to " + remoteFolder;
 			}
 			printLine(message + "\n");
-			int[] counters = new int[2];
+			LocalManifest manifest = LocalManifest.start(file, isOptionRecursive(), folderFilter, LocalManifest.DEFAULT_CAPACITY, getOptionScanThreads());
+			int[] counters = new int[3];
 			counters[0] = 0;
-			counters[1] = getFileCount(file, isOptionRecursive());
+			counters[1] = 0;
+			counters[2] = 0;
 			
-			int uploaded = uploadFolder(file, getRemoteFolderByPath(remoteFolder), counters);
+			if (isOptionVirtualThreads()) {
+				int maxUploads = getOptionThreads() > 1 ? getOptionThreads() : DEFAULT_VIRTUAL_THREADS_UPLOADS;
+				getDocumentList().setMaxConcurrentInserts(maxUploads);
+				ExecutorService executor = newVirtualThreadExecutor();
+				if (executor == null) {
+					printLine("Virtual threads require Java 21 or later, uploading with " + maxUploads + " threads\n");
+					executor = Executors.newFixedThreadPool(maxUploads);
+				}
+				startUploadExecutor(executor, maxUploads);
+			} else if (getOptionThreads() > 1) {
+				startUploadExecutor(Executors.newFixedThreadPool(getOptionThreads()), getOptionThreads());
+			}
+			setFolderExecutor(Executors.newFixedThreadPool(Math.max(DEFAULT_FOLDER_THREADS, getOptionThreads())));
+			int uploaded = 0;
+			try {
+				uploaded = uploadFolder(manifest, getRemotePath(remoteFolder), counters);
+				uploaded += waitForUploads();
+				counters[1] = manifest.getFileCount();
+				if (manifest.getError() != null) {
+					printLine("\nFailed to scan " + path + ": " + manifest.getError().getMessage());
+				}
+			} finally {
+				if (getUploadExecutor() != null) {
+					getUploadExecutor().shutdown();
+					setUploadExecutor(null);
+					pendingUploads = null;
+				}
+				getFolderExecutor().shutdown();
+				setFolderExecutor(null);
+			}
+			if (counters[2] > 0) {
+				printLine("\nFiles skipped as already uploaded: " + counters[2]);
+			}
 			printLine("\nFiles uploaded: " + uploaded + " out of " + counters[1]);		
 		} else {
-			printLine("\n" + file.getAbsolutePath());
-			DocumentListEntry remoteFolderEntry = getRemoteFolderByPath(remoteFolder);
-			uploadFile(file, remoteFolderEntry, getDocsFromFolder(remoteFolderEntry));
+			LocalManifest.Entry entry = new LocalManifest.Entry(file, file.length(), file.lastModified(), false);
+			if (isJournaled(entry, getRemotePath(remoteFolder))) {
+				printLine("\nThe file has already been uploaded");
+				return;
+			}
+			printLine("");
+			RemoteEntry remoteFolderEntry = null;
+			try {
+				remoteFolderEntry = getRemoteFolderByPath(remoteFolder);
+			} catch (DocumentListException e) {
+				printLine(e.getMessage());
+				return;
+			}
+			DocumentListIndex remoteDocs = isOptionAddAll() ? new DocumentListIndex() : getDocsToCheck(remoteFolderEntry);
+			uploadFileWithProgress(entry, remoteFolderEntry, getRemotePath(remoteFolder), remoteDocs, "");
 			printLine("\nThe file has been uploaded");
 		}		
 	}
@@ -366,54 +978,429 @@ public class GoogleDocsUpload {
 	/**
 	 * Internal method for uploading a folder.
 	 * 
-	 * @param folder the folder
-	 * @param remoteFolder the remote folder
-	 * @param counters the counters
+	 * The remote folders are requested as soon as the walk finds the local
+	 * ones, ahead of the uploads of the files, and the sibling folders are
+	 * created in parallel by the folder executor.
 	 * 
-	 * @return the number of uploaded documents
+	 * @param manifest the manifest of the folder, consumed while it is being scanned
+	 * @param remotePath the path of the remote folder
+	 * @param counters the counters of the files processed, found and skipped as already uploaded
+	 * 
+	 * @return the number of uploaded documents, not including the uploads still running in parallel
 	 */
-	protected int uploadFolder(File folder, DocumentListEntry remoteFolder, int[] counters) {
-		DocumentListFeed remoteSubFolders = getSubFolders(remoteFolder);
-		DocumentListFeed remoteDocs = getDocsFromFolder(remoteFolder);
+	protected int uploadFolder(LocalManifest manifest, String remotePath, int[] counters) {
+		// the folders from the root to the current one, as the entries come in depth-first order
+		LinkedList<FolderContext> folders = new LinkedList<FolderContext>();
 		int uploaded = 0;
-		for (File file : folder.listFiles()) {
-			if (!file.isDirectory()) {	
+		for (LocalManifest.Entry entry : manifest) {
+			File file = entry.getFile();
+			while (!folders.isEmpty() && !folders.getLast().folder.equals(file.getParentFile())) {
+				folders.removeLast();
+			}
+			
+			if (entry.isDirectory()) {
+				String currentRemotePath = remotePath;
+				if (!folders.isEmpty()) {
+					currentRemotePath = "";
+					if (!isOptionWithoutFolders()) {
+						currentRemotePath = folders.getLast().remotePath + "/" + getFolderName(file);
+					}
+				}
+				folders.add(new FolderContext(file, currentRemotePath, provisionFolder(currentRemotePath)));
+			} else {
+				FolderContext folder = folders.getLast();
 				counters[0]++;
-				printLine("[" + counters[0] + "/" + counters[1] + "] " + file.getAbsolutePath());
-				DocumentListEntry entry = uploadFile(file, remoteFolder, remoteDocs); 
-				if (entry != null) {
-					printLine(" - Uploaded: " + entry.getResourceId());
-					uploaded++;
+				counters[1] = manifest.getFileCount();
+				if (isJournaled(entry, folder.remotePath)) {
+					counters[2]++;
+					continue;
 				}
+				if (folder.remoteDocs == null) {
+					// without folders all the sub folders share the listing of the root, which is fetched once
+					folder.remoteDocs = listDocs(folder.remotePath, folder.remoteFolder);
+				}
+				// until the scan is complete the total is the number of files found so far
+				String total = counters[1] + (manifest.isComplete() ? "" : "+");
+				uploaded += submitUpload(entry, folder, "[" + counters[0] + "/" + total + "] ");
 			}
 		}
-		
-		for (File file : folder.listFiles()) {
-			if (isOptionRecursive() && file.isDirectory()) {
-				DocumentListEntry currentRemoteFolder = null;
-				if (!isOptionWithoutFolders()) {
-					currentRemoteFolder = documentListFindByTitle(getFolderName(file), remoteSubFolders);
-					if (currentRemoteFolder == null) {
-						try {
-							if (remoteFolder == null) {
-								currentRemoteFolder = getDocumentList().createNew(getFolderName(file), "folder");
-							} else {
-								currentRemoteFolder = getDocumentList().createNewSubFolder(getFolderName(file), remoteFolder.getResourceId());
-							}						
-						} catch (Exception e) {
-							printLine(" - Skipped: failed to create the folder, files will be uploaded to the upper-level folder");
-							e.printStackTrace();
-						}			
-						if (currentRemoteFolder == null) {
-							printLine(" - Skipped: failed to create the folder, files will be uploaded to the upper-level folder");
+		return uploaded;	
+	}
+	
+	/**
+	 * Gets the remote folder of a path, finding or creating it and its parents
+	 * with the folder executor. Each path is requested once, the concurrent
+	 * requests of a path get the same remote folder.
+	 * 
+	 * @param path the path of the remote folder, such as "/a/b", "" for the root
+	 * 
+	 * @return the remote folder, the parent remote folder if it has failed to create the folder
+	 */
+	protected Future<RemoteFolder> provisionFolder(final String path) {
+		Future<RemoteFolder> remoteFolder = remoteFolders.get(path);
+		if (remoteFolder != null) {
+			return remoteFolder;
+		}
+		// the parent is submitted first, so that it is never waited for by a task started before it
+		final Future<RemoteFolder> parent = path.isEmpty() ? null : provisionFolder(path.substring(0, path.lastIndexOf('/')));
+		FutureTask<RemoteFolder> task = new FutureTask<RemoteFolder>(new Callable<RemoteFolder>() {
+			@Override
+			public RemoteFolder call() throws Exception {
+				if (parent == null) {
+					return new RemoteFolder(null, null);
+				}
+				return getRemoteSubFolder(parent.get(), path.substring(path.lastIndexOf('/') + 1));
+			}
+		});
+		remoteFolder = remoteFolders.putIfAbsent(path, task);
+		if (remoteFolder != null) {
+			return remoteFolder;
+		}
+		execute(task);
+		return task;
+	}
+	
+	/**
+	 * Requests the listing of the docs of a remote folder, unless it has
+	 * already been requested during this run.
+	 * 
+	 * @param path the path of the remote folder
+	 * @param remoteFolder the remote folder
+	 * 
+	 * @return the remote docs
+	 */
+	protected Future<DocumentListIndex> listDocs(String path, final Future<RemoteFolder> remoteFolder) {
+		Future<DocumentListIndex> remoteDocs = remoteDocLists.get(path);
+		if (remoteDocs != null) {
+			return remoteDocs;
+		}
+		FutureTask<DocumentListIndex> task = null;
+		if (isOptionAddAll()) {
+			// all the files are added whatever the documents of the folder, there is no need to list them
+			task = new FutureTask<DocumentListIndex>(new Callable<DocumentListIndex>() {
+				@Override
+				public DocumentListIndex call() {
+					return new DocumentListIndex();
+				}
+			});
+			task.run();
+		} else {
+			task = new FutureTask<DocumentListIndex>(new Callable<DocumentListIndex>() {
+				@Override
+				public DocumentListIndex call() throws Exception {
+					return getDocsToCheck(remoteFolder.get().entry);
+				}
+			});
+		}
+		remoteDocs = remoteDocLists.putIfAbsent(path, task);
+		if (remoteDocs != null) {
+			return remoteDocs;
+		}
+		if (!task.isDone()) {
+			execute(task);
+		}
+		return task;
+	}
+	
+	/**
+	 * Runs a task with the folder executor, or immediately if it is not set.
+	 * 
+	 * @param task the task
+	 */
+	protected void execute(FutureTask<?> task) {
+		if (getFolderExecutor() == null) {
+			task.run();
+		} else {
+			getFolderExecutor().execute(task);
+		}
+	}
+	
+	/**
+	 * Finds or creates a remote sub folder.
+	 * 
+	 * @param parent the parent folder
+	 * @param name the name of the sub folder
+	 * 
+	 * @return the remote sub folder, the parent remote folder if it has failed to create the sub folder
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed
+	 */
+	protected RemoteFolder getRemoteSubFolder(RemoteFolder parent, String name) throws DocumentListException {
+		DocumentListIndex subFolders = getSubFolders(parent);
+		RemoteEntry remoteSubFolder = documentListFindByTitle(name, "folder", subFolders);
+		if (remoteSubFolder != null) {
+			return new RemoteFolder(remoteSubFolder, null);
+		}
+		try {
+			if (parent.entry == null) {
+				remoteSubFolder = RemoteEntry.from(getDocumentList().createNew(name, "folder"));
+			} else {
+				remoteSubFolder = RemoteEntry.from(getDocumentList().createNewSubFolder(name, parent.entry.getResourceId()));
+			}
+			remoteSubFolder = addRemoteFolder(remoteSubFolder, parent.entry);
+			return new RemoteFolder(remoteSubFolder, null);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		printLine(" - Skipped: failed to create the folder " + name + ", files will be uploaded to the upper-level folder");
+		return parent;
+	}
+	
+	/**
+	 * Gets the sub folders of a remote folder, from the remote folder graph on the first call.
+	 * 
+	 * @param folder the remote folder
+	 * 
+	 * @return the sub folders indexed by title
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed
+	 */
+	protected DocumentListIndex getSubFolders(RemoteFolder folder) throws DocumentListException {
+		synchronized (folder) {
+			if (folder.subFolders == null) {
+				folder.subFolders = folder.entry == null ? getRootFolders() : getSubFolders(folder.entry);
+			}
+			return folder.subFolders;
+		}
+	}
+	
+	/**
+	 * Uploads a file of a folder, either immediately or in parallel if the upload executor is set.
+	 * The upload waits for the remote folder and its listing.
+	 * 
+	 * @param file the manifest entry of the file
+	 * @param folder the folder of the file
+	 * @param progress the progress prefix of the messages
+	 * 
+	 * @return 1 if the file has been uploaded immediately, 0 otherwise
+	 */
+	protected int submitUpload(final LocalManifest.Entry file, final FolderContext folder, final String progress) {
+		if (getUploadExecutor() == null) {
+			return uploadFileToFolder(file, folder, progress) != null ? 1 : 0;
+		}
+		submitParallel(new Callable<RemoteEntry>() {
+			@Override
+			public RemoteEntry call() {
+				startBufferedOutput();
+				try {
+					return uploadFileToFolder(file, folder, progress);
+				} finally {
+					flushBufferedOutput();
+				}
+			}
+		});
+		return 0;
+	}
+	
+	/**
+	 * Uploads a file of a folder once its remote folder and listing are ready.
+	 * 
+	 * @param file the manifest entry of the file
+	 * @param folder the folder of the file
+	 * @param progress the progress prefix of the messages
+	 * 
+	 * @return the uploaded document list entry, null if the file has been skipped
+	 */
+	protected RemoteEntry uploadFileToFolder(LocalManifest.Entry file, FolderContext folder, String progress) {
+		RemoteEntry remoteFolder = null;
+		DocumentListIndex remoteDocs = null;
+		try {
+			remoteFolder = folder.remoteFolder.get().entry;
+			remoteDocs = folder.remoteDocs.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			printLine(progress + file.getFile().getAbsolutePath());
+			e.getCause().printStackTrace();
+			printLine(" - Skipped");
+			return null;
+		}
+		return uploadFileWithProgress(file, remoteFolder, folder.remotePath, remoteDocs, progress);
+	}
+	
+	/**
+	 * Creates an executor starting a new virtual thread for each task.
+	 * 
+	 * @return the executor, null if virtual threads are not supported by the JVM
+	 */
+	protected static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Sets the upload executor, bounding the uploads submitted to it and not
+	 * yet completed to a few per thread. The files are then held by the
+	 * bounded manifest queue rather than by the queue of the executor.
+	 * 
+	 * @param executor the upload executor
+	 * @param threads the number of uploads running at a time
+	 */
+	protected void startUploadExecutor(ExecutorService executor, int threads) {
+		setUploadExecutor(executor);
+		maxPendingUploads = PENDING_UPLOADS_PER_THREAD * threads;
+		pendingUploads = new Semaphore(maxPendingUploads);
+		parallelUploads.set(0);
+	}
+	
+	/**
+	 * Submits an upload or a download to the upload executor, waiting while
+	 * the maximum number of them are pending. No future is kept: the
+	 * documents uploaded are counted as the tasks complete.
+	 * 
+	 * @param task the task, returning the document, null if it has been skipped
+	 */
+	protected void submitParallel(final Callable<RemoteEntry> task) {
+		try {
+			pendingUploads.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			getUploadExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (task.call() != null) {
+							parallelUploads.incrementAndGet();
 						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						pendingUploads.release();
 					}
 				}
-				uploaded += uploadFolder(file, currentRemoteFolder, counters);
-			} 
+			});
+		} catch (RuntimeException e) {
+			pendingUploads.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Waits for the uploads running in parallel.
+	 * 
+	 * @return the number of uploaded documents
+	 */
+	protected int waitForUploads() {
+		if (pendingUploads == null) {
+			return 0;
+		}
+		try {
+			pendingUploads.acquire(maxPendingUploads);
+			pendingUploads.release(maxPendingUploads);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return parallelUploads.getAndSet(0);
+	}
+	
+	/**
+	 * Upload file printing its progress.
+	 * 
+	 * @param file the manifest entry of the file
+	 * @param remoteFolder the remote folder
+	 * @param remotePath the path of the remote folder, such as "/a/b", "" for the root
+	 * @param remoteDocs the remote docs
+	 * @param progress the progress prefix of the messages
+	 * 
+	 * @return the uploaded document list entry, null if the file has been skipped
+	 */
+	protected RemoteEntry uploadFileWithProgress(LocalManifest.Entry file, RemoteEntry remoteFolder, String remotePath, DocumentListIndex remoteDocs,
+			String progress) {
+		printLine(progress + file.getFile().getAbsolutePath());
+		String hash = null;
+		UploadJournal.Record record = null;
+		if (isOptionSync()) {
+			try {
+				hash = UploadJournal.hash(file.getFile());
+			} catch (IOException e) {
+				printLine(" - Failed to compute the hash: " + e.getMessage());
+			}
+			record = getUploadJournal().getRecord(remotePath, file.getFile().getAbsolutePath());
 		}
 		
-		return uploaded;	
+		RemoteEntry entry = null;
+		if (record != null) {
+			if (hash != null && hash.equals(record.getHash())) {
+				printLine(" - Unchanged");
+				// journal the new modification time so that the file is not hashed again
+				journalUpload(file, remotePath, record.getFolderResourceId(), record.getResourceId(), hash);
+				return null;
+			}
+			entry = updateSyncedFile(file, record, remoteDocs);
+		}
+		if (entry == null) {
+			entry = uploadFile(file.getFile(), remoteFolder, remoteDocs); 
+		}
+		if (entry != null) {
+			printLine(" - Uploaded: " + entry.getResourceId());
+			journalUpload(file, remotePath, remoteFolder == null ? null : remoteFolder.getResourceId(), entry.getResourceId(), hash);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Updates the document previously uploaded from a file which has changed since.
+	 * 
+	 * @param file the manifest entry of the file
+	 * @param record the journal record of the previous upload
+	 * @param remoteDocs the remote docs
+	 * 
+	 * @return the updated document list entry, null if it has failed to update the document
+	 */
+	protected RemoteEntry updateSyncedFile(LocalManifest.Entry file, UploadJournal.Record record, DocumentListIndex remoteDocs) {
+		try {
+			DocumentListEntry remoteDoc = getDocumentList().getDocsListEntry(record.getResourceId());
+			RemoteEntry entry = RemoteEntry.from(getDocumentList().updateFile(file.getFile().getAbsolutePath(), getFileName(file.getFile()), remoteDoc,
+					isOptionHideAll()));
+			remoteDocs.add(entry);
+			printLine(" - Updated");
+			return entry;
+		} catch (Exception e) {
+			printLine(" - Failed to update " + record.getResourceId() + ", uploading as a new document: " + e.getMessage());
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks if a file is skipped as already uploaded when resuming.
+	 * 
+	 * @param file the file
+	 * @param remotePath the path of the remote folder, such as "/a/b", "" for the root
+	 * 
+	 * @return true, if the file has been journaled for the account and the remote folder and has not changed since
+	 */
+	protected boolean isJournaled(LocalManifest.Entry file, String remotePath) {
+		return (isOptionResume() || isOptionSync()) && getUploadJournal() != null
+				&& getUploadJournal().contains(remotePath, file.getFile().getAbsolutePath(), file.getSize(), file.getLastModified());
+	}
+	
+	/**
+	 * Appends an upload to the journal if it is enabled.
+	 * 
+	 * @param file the file
+	 * @param remotePath the path of the remote folder, such as "/a/b", "" for the root
+	 * @param folderResourceId the resource id of the remote folder, null for the root
+	 * @param resourceId the resource id of the uploaded document
+	 * @param hash the content hash of the file, null if unknown
+	 */
+	protected void journalUpload(LocalManifest.Entry file, String remotePath, String folderResourceId, String resourceId, String hash) {
+		if (getUploadJournal() == null) {
+			return;
+		}
+		try {
+			getUploadJournal().append(new UploadJournal.Record(file.getFile().getAbsolutePath(), file.getSize(), file.getLastModified(),
+					resourceId, folderResourceId, hash, getUploadJournal().getAccount(), remotePath));
+		} catch (IOException e) {
+			printLine(" - Failed to write the journal: " + e.getMessage());
+		}
 	}
 	
 	/**
@@ -423,268 +1410,470 @@ public class GoogleDocsUpload {
 	 * @param remoteFolder the remote folder
 	 * @param remoteDocs the remote docs
 	 * 
-	 * @return true, if successful
+	 * @return true, if successful
+	 */
+	protected RemoteEntry uploadFile(File file, RemoteEntry remoteFolder, DocumentListIndex remoteDocs) {	
+//		if (!isAllowedFormat(file)) {
+//			printLine(" - Skipped: the file format is not supported");
+//			return false;
+//		}
+//		if (!isAllowedSize(file)) {
+//			printLine(" - Skipped: the file size exceeds the limit");
+//			return null;
+//		}
+		
+		boolean convert = true;
+		if (isOptionWithoutConversion()) {
+			convert = false;
+		} else {
+			convert = isAllowedFormat(file);
+			if (!convert) {
+				printLine(" - Uploading without conversion");
+			}
+		}
+		String name = null;
+		if (convert) {
+			name = getFileName(file);
+		} else {
+			name = file.getName();
+		}
+		
+		// the title is reserved from its lookup to the addition of the uploaded document,
+		// so that the files with the same title uploaded in parallel are not all added as new documents
+		try {
+			remoteDocs.reserve(name);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			printLine(" - Skipped");
+			return null;
+		}
+		try {
+			return uploadFile(file, name, convert, remoteFolder, remoteDocs);
+		} finally {
+			remoteDocs.release(name);
+		}
+	}
+	
+	/**
+	 * Uploads a file with a title, unless a document with the same title is
+	 * found and the file is skipped or replaces it.
+	 * 
+	 * @param file the file
+	 * @param name the title of the document
+	 * @param convert true to convert the file to a document
+	 * @param remoteFolder the remote folder
+	 * @param remoteDocs the remote docs
+	 * 
+	 * @return the uploaded document list entry, null if the file has been skipped
+	 */
+	protected RemoteEntry uploadFile(File file, String name, boolean convert, RemoteEntry remoteFolder, DocumentListIndex remoteDocs) {
+		RemoteEntry currentRemoteDoc = isOptionAddAll() ? null : documentListFindByTitle(name, convert ? getFileType(file) : null, remoteDocs);
+		boolean skip = false;
+		if (currentRemoteDoc != null && !isOptionAddAll()) {
+			boolean replace = false;
+			
+			if (!isOptionSkipAll() && !isOptionReplaceAll()) {
+				synchronized (promptLock) {
+					// another worker may have answered with an "all" choice while waiting for the lock
+					if (!isOptionAddAll() && !isOptionSkipAll() && !isOptionReplaceAll()) {
+						boolean buffered = outBuffer.get() != null;
+						flushBufferedOutput();
+						
+						String choice = null;
+						printLine(" - A document with the same name and type found in Google Docs");
+						
+						while (true) {
+							print(" - add (a) / skip (s) / replace (r) / add all (aa) / skip all (sa) / replace all (ra): ");
+							Scanner scanner = new Scanner(System.in);
+							choice = scanner.nextLine();
+							if (choice.equals("a") || choice.equals("s") || choice.equals("r") || choice.equals("aa") || choice.equals("sa") || choice.equals("ra")) {
+								break;
+							}
+						}
+						
+						if (choice.equals("s")) {
+							skip = true;							
+						} else if (choice.equals("r")) {
+							replace = true;							
+						} else if (choice.equals("aa")) {
+							setOptionAddAll(true);							
+						} else if (choice.equals("sa")) {
+							setOptionSkipAll(true);							
+						} else if (choice.equals("ra")) {
+							setOptionReplaceAll(true);							
+						}
+						
+						if (buffered) {
+							startBufferedOutput();
+						}
+					}
+				}
+			}
+			
+			if (isOptionReplaceAll() || replace) {
+				try {
+					//getDocumentList().trashObject(currentRemoteDoc.getResourceId(), true);
+					// the index keeps only the fields of the entry, the whole entry is needed to update it
+					DocumentListEntry remoteDoc = getDocumentList().getDocsListEntry(currentRemoteDoc.getResourceId());
+					RemoteEntry entry = RemoteEntry.from(getDocumentList().updateFile(file.getAbsolutePath(), getFileName(file), remoteDoc, isOptionHideAll()));
+					remoteDocs.add(entry);
+					return entry;
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}										
+		}
+			
+		if (currentRemoteDoc == null || !isOptionSkipAll() && !skip) {
+			// the upload is retried by the document list only when it is known not to have been processed,
+			// trying it again after any error could create the document twice
+			try {					
+				RemoteEntry entry = null;
+				if (remoteFolder == null) {
+					entry = RemoteEntry.from(getDocumentList().uploadFile(file.getAbsolutePath(), name, convert, isOptionHideAll()));
+				} else {
+					entry = RemoteEntry.from(getDocumentList().uploadFileToFolder(file.getAbsolutePath(), name, remoteFolder.getResourceId(), convert,
+							isOptionHideAll()));
+				}
+				remoteDocs.add(entry);
+				return entry;
+			} catch (ServiceForbiddenException e) {
+				printLine(" - Uploading without conversion is only available to Google Apps for Business accounts");
+			} catch (Exception e) {
+				printLine(" - Upload error: " + e.getMessage());
+			}
+		}
+		
+		printLine(" - Skipped");
+		return null;		
+	}
+	
+	/**
+	 * Gets the root folders.
+	 * 
+	 * @return the root folders indexed by title
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed
+	 */
+	public DocumentListIndex getRootFolders() throws DocumentListException {		
+		return getRemoteFolderGraph().getSubFolders(null);
+	}
+	
+	/**
+	 * Gets the sub folders.
+	 * 
+	 * @param folder the folder, null for the root
+	 * 
+	 * @return the sub folders indexed by title
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed
+	 */
+	public DocumentListIndex getSubFolders(RemoteEntry folder) throws DocumentListException {
+		return getRemoteFolderGraph().getSubFolders(folder == null ? null : folder.getResourceId());
+	}
+	
+	/**
+	 * Gets the graph of all the remote folders. The folders feed is paged
+	 * through once on the first call, or only the folders updated since the
+	 * cached graph was listed if the remote tree cache is enabled. Only a
+	 * complete listing is kept: after a failure the next call lists the
+	 * folders again, as a missing folder would otherwise be created again.
+	 * 
+	 * @return the remote folder graph
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed
+	 */
+	protected synchronized RemoteFolderGraph getRemoteFolderGraph() throws DocumentListException {
+		if (remoteFolderGraph != null) {
+			return remoteFolderGraph;
+		}
+		RemoteTreeCache cache = getRemoteTreeCache();
+		long time = System.currentTimeMillis();
+		DocumentListIndex folders = cache == null ? null : cache.getListing(RemoteTreeCache.ALL_FOLDERS);
+		DateTime updatedMin = folders == null ? null : new DateTime(cache.getRevalidationTime(RemoteTreeCache.ALL_FOLDERS));
+		RemoteFolderGraph graph = new RemoteFolderGraph(folders == null ? new DocumentListIndex() : folders);
+		
+		RemoteListing entries = null;
+		try {
+			entries = getDocumentList().getEntries(requestListing(null, true, updatedMin));
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new DocumentListException("Failed to list the remote folders: " + e.getMessage());
+		}
+		for (RemoteEntry folder : entries) {
+			graph.add(folder);
+		}
+		if (entries.getError() != null) {
+			entries.getError().printStackTrace();
+			throw new DocumentListException("Failed to list the remote folders: " + entries.getError().getMessage());
+		}
+		if (cache != null) {
+			cache.putListing(RemoteTreeCache.ALL_FOLDERS, graph.getFolders(), time);
+		}
+		remoteFolderGraph = graph;
+		return remoteFolderGraph;
+	}
+	
+	/**
+	 * Adds a folder that has been created to the remote folder graph.
+	 * 
+	 * @param folder the folder
+	 * @param parent the parent folder, null for the root
+	 * 
+	 * @return the folder, with the parent if the server has not returned it
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed
+	 */
+	protected RemoteEntry addRemoteFolder(RemoteEntry folder, RemoteEntry parent) throws DocumentListException {
+		if (parent != null && folder.getParentIds().length == 0) {
+			folder = new RemoteEntry(folder.getResourceId(), folder.getTitle(), folder.getEtag(), new String[] { parent.getResourceId() }, folder.getUpdated(),
+					folder.getContentUri());
+		}
+		getRemoteFolderGraph().add(folder);
+		return folder;
+	}
+	
+	/**
+	 * Gets the docs.
+	 * 
+	 * @param folder the folder
+	 * 
+	 * @return the docs indexed by title
+	 */
+	public DocumentListIndex getDocsFromFolder(RemoteEntry folder) {
+		return getListing(folder, false);
+	}
+	
+	/**
+	 * Gets the listing of a folder, from the remote tree cache if it is enabled.
+	 * A cached listing is revalidated by fetching only the entries updated since it was listed.
+	 * 
+	 * @param folder the folder, null for the root
+	 * @param folders true to list the sub folders, false to list the documents
+	 * 
+	 * @return the listing indexed by title
 	 */
-	protected DocumentListEntry uploadFile(File file, DocumentListEntry remoteFolder, DocumentListFeed remoteDocs) {	
-//		if (!isAllowedFormat(file)) {
-//			printLine(" - Skipped: the file format is not supported");
-//			return false;
-//		}
-//		if (!isAllowedSize(file)) {
-//			printLine(" - Skipped: the file size exceeds the limit");
-//			return null;
-//		}
-		
-		boolean convert = true;
-		if (isOptionWithoutConversion()) {
-			convert = false;
-		} else {
-			convert = isAllowedFormat(file);
-			if (!convert) {
-				printLine(" - Uploading without conversion");
-			}
-		}
-		String name = null;
-		if (convert) {
-			name = getFileName(file);
-		} else {
-			name = file.getName();
-		}
-
-		DocumentListEntry currentRemoteDoc = documentListFindByTitle(name, remoteDocs);
-		boolean skip = false;
-		if (currentRemoteDoc != null && !isOptionAddAll() && (!convert || currentRemoteDoc.getType().equals(getFileType(file)))) {
-			boolean replace = false;
-			
-			if (!isOptionSkipAll() && !isOptionReplaceAll()) {
-				String choice = null;
-				printLine(" - A document with the same name and type found in Google Docs");
-				
-				while (true) {
-					print(" - add (a) / skip (s) / replace (r) / add all (aa) / skip all (sa) / replace all (ra): ");
-					Scanner scanner = new Scanner(System.in);
-					choice = scanner.nextLine();
-					if (choice.equals("a") || choice.equals("s") || choice.equals("r") || choice.equals("aa") || choice.equals("sa") || choice.equals("ra")) {
-						break;
-					}
-				}
-				
-				if (choice.equals("s")) {
-					skip = true;							
-				} else if (choice.equals("r")) {
-					replace = true;							
-				} else if (choice.equals("aa")) {
-					setOptionAddAll(true);							
-				} else if (choice.equals("sa")) {
-					setOptionSkipAll(true);							
-				} else if (choice.equals("ra")) {
-					setOptionReplaceAll(true);							
+	protected DocumentListIndex getListing(RemoteEntry folder, boolean folders) {
+		RemoteTreeCache cache = getRemoteTreeCache();
+		String key = RemoteTreeCache.getListingKey(folder == null ? null : folder.getResourceId(), folders);
+		long time = System.currentTimeMillis();
+		if (cache != null) {
+			DocumentListIndex results = cache.getListing(key);
+			if (results != null) {
+				if (listFolder(folder, folders, new DateTime(cache.getRevalidationTime(key)), results)) {
+					cache.putListing(key, results, time);
 				}
+				return results;
 			}
-			
-			if (isOptionReplaceAll() || replace) {
-				try {
-					//getDocumentList().trashObject(currentRemoteDoc.getResourceId(), true);
-					return getDocumentList().updateFile(file.getAbsolutePath(), getFileName(file), currentRemoteDoc, isOptionHideAll());
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}										
 		}
-			
-		if (currentRemoteDoc == null || !isOptionSkipAll() && !skip) {
-			int cnt = 3;
-			if (isOptionDisableRetries()) {
-				cnt = 1;
-			}
-			for (int i = 0; i < cnt; i++) {				
-				try {					
-					if (remoteFolder == null) {
-						return getDocumentList().uploadFile(file.getAbsolutePath(), name, convert, isOptionHideAll());
-					} else {
-						return getDocumentList().uploadFileToFolder(file.getAbsolutePath(), name, remoteFolder.getResourceId(), convert, isOptionHideAll());
-					}
-				} catch (ServiceForbiddenException e) {
-					printLine(" - Uploading without conversion is only available to Google Apps for Business accounts");
-					break;
-				} catch (Exception e) {
-					printLine(" - Upload error: " + e.getMessage());
-					if (i < 2 && !isOptionDisableRetries()) {
-						printLine(" - Another try...");
-					} else {
-						break;
-					}
-				}
-			}
+		DocumentListIndex results = new DocumentListIndex();
+		if (listFolder(folder, folders, null, results) && cache != null) {
+			cache.putListing(key, results, time);
 		}
-		
-		printLine(" - Skipped");
-		return null;		
+		return results;
 	}
 	
 	/**
-	 * Gets the root folders.
+	 * Gets the docs to check the files uploaded to a folder against. A
+	 * folder listed in one page is indexed from it. The files uploaded to a
+	 * larger folder are not known while the manifest is being scanned, so
+	 * their titles are searched one by one as they are uploaded, from the
+	 * first page on, until the searches have taken as long as the rest of
+	 * the listing would, estimated from the time of the first page.
+	 * 
+	 * @param folder the folder, null for the root
 	 * 
-	 * @return the root folders
+	 * @return the docs indexed by title
 	 */
-	public DocumentListFeed getRootFolders() {		
-		DocumentListFeed results = new DocumentListFeed();
+	public DocumentListIndex getDocsToCheck(RemoteEntry folder) {
+		RemoteTreeCache cache = getRemoteTreeCache();
+		String key = RemoteTreeCache.getListingKey(folder == null ? null : folder.getResourceId(), false);
+		if (cache != null && cache.getListing(key) != null) {
+			// revalidating a cached listing costs about one request
+			return getDocsFromFolder(folder);
+		}
+		long time = System.currentTimeMillis();
+		DocumentListFeed firstPage = null;
 		try {
-			DocumentListFeed docs = getDocumentList().getDocsListFeed("folders");
-			List<DocumentListEntry> list = new ArrayList<DocumentListEntry>();
-			for (DocumentListEntry doc : docs.getEntries()) {
-				if (doc.getParentLinks().isEmpty()) {
-					list.add(doc);
-				}			
-			}
-			results.setEntries(list);			
+			firstPage = requestListing(folder, false, null);
 		} catch (Exception e) {
 			e.printStackTrace();
+			return new DocumentListIndex();
+		}
+		if (firstPage.getNextLink() != null) {
+			long listingTime = (System.currentTimeMillis() - time) * getRemainingPages(firstPage, key);
+			return new TitleSearchIndex(getDocumentList(), folder == null ? null : folder.getResourceId(), firstPage, listingTime);
+		}
+		DocumentListIndex results = new DocumentListIndex();
+		if (listPages(folder, false, firstPage, results) && cache != null) {
+			cache.putListing(key, results, time);
 		}
 		return results;
 	}
 	
 	/**
-	 * Gets the sub folders.
+	 * Estimates the number of pages of a listing after its first page, from
+	 * the total number of results reported by the server or else from the
+	 * size of the expired cached listing.
 	 * 
-	 * @param folder the folder
+	 * @param firstPage the first page of the listing
+	 * @param key the key of the listing in the remote tree cache
+	 * 
+	 * @return the number of remaining pages, 1 if unknown
+	 */
+	protected long getRemainingPages(DocumentListFeed firstPage, String key) {
+		int pageLength = firstPage.getEntries().size();
+		long size = firstPage.getTotalResults();
+		if (size <= pageLength && getRemoteTreeCache() != null) {
+			size = getRemoteTreeCache().getListingSize(key);
+		}
+		if (pageLength == 0 || size <= pageLength) {
+			return 1;
+		}
+		return (size - 1) / pageLength;
+	}
+	
+	/**
+	 * Requests the first page of the listing of a folder.
+	 * 
+	 * @param folder the folder, null for the root
+	 * @param folders true to list the sub folders, false to list the documents
+	 * @param updatedMin the lower bound of the update time, null to list all the entries
+	 * 
+	 * @return the first page
 	 * 
-	 * @return the sub folders
+	 * @throws Exception if the request has failed
 	 */
-	public DocumentListFeed getSubFolders(DocumentListEntry folder) {
-		DocumentListFeed results = null;
+	protected DocumentListFeed requestListing(RemoteEntry folder, boolean folders, DateTime updatedMin) throws Exception {
 		if (folder == null) {
-			return getRootFolders();
+			return getDocumentList().getDocsListFeed(folders ? "folders" : "all", updatedMin);
+		} else if (folders) {
+			return getDocumentList().getSubFolders(folder.getResourceId(), updatedMin);
 		}
+		return getDocumentList().getFolderDocsListFeed(folder.getResourceId(), updatedMin);
+	}
+	
+	/**
+	 * Pages through the listing of a folder.
+	 * 
+	 * @param folder the folder, null for the root
+	 * @param folders true to list the sub folders, false to list the documents
+	 * @param updatedMin the lower bound of the update time, null to list all the entries
+	 * @param results the index to add the entries to, the entries moved away are removed from it
+	 * 
+	 * @return true, if the whole listing has been fetched
+	 */
+	protected boolean listFolder(RemoteEntry folder, boolean folders, DateTime updatedMin, DocumentListIndex results) {
+		DocumentListFeed docs = null;
 		try {
-			results = getDocumentList().getSubFolders(folder.getResourceId());
+			docs = requestListing(folder, folders, updatedMin);
 		} catch (Exception e) {
 			e.printStackTrace();
-		}		
-		return results;
+			return false;
+		}
+		return listPages(folder, folders, docs, results);
 	}
 	
 	/**
-	 * Gets the docs.
+	 * Pages through the listing of a folder from its first page.
 	 * 
-	 * @param folder the folder
+	 * @param folder the folder, null for the root
+	 * @param folders true to list the sub folders, false to list the documents
+	 * @param docs the first page of the listing
+	 * @param results the index to add the entries to, the entries moved away are removed from it
 	 * 
-	 * @return the docs
+	 * @return true, if the whole listing has been fetched
 	 */
-	public DocumentListFeed getDocsFromFolder(DocumentListEntry folder) {
-		DocumentListFeed results = new DocumentListFeed();
-		DocumentListFeed docs = null;
-		List<DocumentListEntry> list = new ArrayList<DocumentListEntry>();
-		
-		if (folder == null) {			
-			try {
-				docs = getDocumentList().getDocsListFeed("all");
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-
-			while (true) {
-				if (docs != null && docs.getEntries().size() > 0) { // docs.getTotalResults() != -1 && 
-					for (DocumentListEntry doc : docs.getEntries()) {
-						if (doc.getParentLinks().isEmpty() && !doc.getType().equals("folder")) {
-							list.add(doc);
-						}			
-					}
-					
-					try {
-						docs = getDocumentList().getDocsListFeed(docs.getNextLink());
-					} catch (Exception e) {
-						e.printStackTrace();
-						break;
-					}
-				} else {
-					break;				
-				}
-			}
-		} else {
-			try {
-				docs = getDocumentList().getFolderDocsListFeed(folder.getResourceId());
-			} catch (Exception e) {
-				e.printStackTrace();
+	protected boolean listPages(RemoteEntry folder, boolean folders, DocumentListFeed docs, DocumentListIndex results) {
+		// the pages are streamed, the next one is requested while the current one is being indexed
+		RemoteListing entries = getDocumentList().getEntries(docs);
+		for (RemoteEntry doc : entries) {
+			if (doc.getType().equals("folder") == folders && (folder != null || doc.getParentIds().length == 0)) {
+				results.add(doc);
+			} else {
+				results.remove(doc.getResourceId());
 			}
-			
-			while (true) {
-				if (docs != null && docs.getEntries().size() > 0) {
-					for (DocumentListEntry doc : docs.getEntries()) {
-						if (!doc.getType().equals("folder")) {
-							list.add(doc);
-						}			
-					}
-					
-					try {
-						docs = getDocumentList().getDocsListFeed(docs.getNextLink());
-					} catch (Exception e) {
-						e.printStackTrace();
-						break;
-					}
-				} else {
-					break;				
-				}
-			}	
 		}
-		
-		results.setEntries(list);					
-		return results;
+		if (entries.getError() != null) {
+			entries.getError().printStackTrace();
+			return false;
+		}
+		return true;
 	}
 	
 	/**
-	 * Gets the remote folder by path.
+	 * Gets the remote folder by path, creating the missing folders.
 	 * 
 	 * @param path the path
 	 * 
 	 * @return the remote folder by path
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed or created
 	 */
-	public DocumentListEntry getRemoteFolderByPath(String path) {
+	public RemoteEntry getRemoteFolderByPath(String path) throws DocumentListException {
+		return getRemoteFolderByPath(path, true);
+	}
+	
+	/**
+	 * Gets the remote folder by path.
+	 * 
+	 * @param path the path
+	 * @param create true to create the missing folders
+	 * 
+	 * @return the remote folder by path, null if it doesn't exist and is not created
+	 * 
+	 * @throws DocumentListException if the remote folders could not be listed or created
+	 */
+	public RemoteEntry getRemoteFolderByPath(String path, boolean create) throws DocumentListException {
 		if (path == null || path.length() < 1) {
 			return null;
 		}
+		if (create) {
+			try {
+				return provisionFolder(getRemotePath(path)).get().entry;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DocumentListException("Interrupted while finding the remote folder " + path);
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+				throw new DocumentListException("Failed to find the remote folder " + path + ": " + e.getCause().getMessage());
+			}
+		}
 		String[] pathArray = path.split("/");
-		DocumentListFeed remoteSubFolders = getRootFolders();
-		DocumentListEntry parentRemoteFolder = null;
-		DocumentListEntry currentRemoteFolder = null;
+		DocumentListIndex remoteSubFolders = getRootFolders();
+		RemoteEntry currentRemoteFolder = null;
 		for (String folder : pathArray) {
 			if (folder.isEmpty()) {
 				continue;
 			}
-			currentRemoteFolder = documentListFindByTitle(folder, remoteSubFolders);
-			if (currentRemoteFolder == null || !currentRemoteFolder.getType().equals("folder")) {
-				try {
-					if (parentRemoteFolder == null) {
-						currentRemoteFolder = getDocumentList().createNew(folder, "folder");
-					} else {
-						currentRemoteFolder = getDocumentList().createNewSubFolder(folder, parentRemoteFolder.getResourceId());
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
-				}			
+			currentRemoteFolder = documentListFindByTitle(folder, "folder", remoteSubFolders);
+			if (currentRemoteFolder == null) {
+				return null;
 			}
 			remoteSubFolders = getSubFolders(currentRemoteFolder);
-			parentRemoteFolder = currentRemoteFolder;
 		}		
 		return currentRemoteFolder;		
 	}
 		
 	/**
-	 * Gets the file count.
+	 * Gets the normalized path of a remote folder.
 	 * 
-	 * @param folder the folder
-	 * @param recursive the recursive
+	 * @param path the path separated by '/', null for the root
 	 * 
-	 * @return the file count
+	 * @return the path, such as "/a/b", "" for the root
 	 */
-	public int getFileCount(File folder, boolean recursive) {
-		int count = folder.listFiles(fileFilter).length;
-		for (File subfolder : folder.listFiles(folderFilter)) {
-			count += getFileCount(subfolder, recursive);
-		};
-		return count;
+	protected static String getRemotePath(String path) {
+		StringBuffer result = new StringBuffer();
+		if (path != null) {
+			for (String folder : path.split("/")) {
+				if (!folder.isEmpty()) {
+					result.append("/").append(folder);
+				}
+			}
+		}
+		return result.toString();
 	}
-
+	
 	/**
 	 * Checks if is allowed format.
 	 * 
@@ -772,17 +1961,16 @@ public class GoogleDocsUpload {
 	 * Document list find by title.
 	 * 
 	 * @param title the title
-	 * @param documentListFeed the document list feed
+	 * @param type the type, null for any type
+	 * @param documentListIndex the document list index
 	 * 
 	 * @return the document list entry
 	 */
-	protected DocumentListEntry documentListFindByTitle(String title, DocumentListFeed documentListFeed) {
-		for (DocumentListEntry doc : documentListFeed.getEntries()) {
-			if (doc.getTitle().getPlainText().equals(title)) {
-				return doc;
-			}			
+	protected RemoteEntry documentListFindByTitle(String title, String type, DocumentListIndex documentListIndex) {
+		if (type == null) {
+			return documentListIndex.findByTitle(title);
 		}
-		return null;
+		return documentListIndex.findByTitle(title, type);
 	}
 	
 	/**
@@ -791,8 +1979,33 @@ public class GoogleDocsUpload {
 	 * @param msg the message to be printed.
 	 */
 	protected static void print(String msg) {
-		getOut().print(msg);
-		getOut().flush();
+		StringBuffer buffer = outBuffer.get();
+		if (buffer != null) {
+			buffer.append(msg);
+			return;
+		}
+		synchronized (getOut()) {
+			getOut().print(msg);
+			getOut().flush();
+		}
+	}
+	
+	/**
+	 * Starts buffering the messages printed by the current thread.
+	 */
+	protected static void startBufferedOutput() {
+		outBuffer.set(new StringBuffer());
+	}
+	
+	/**
+	 * Prints out the messages buffered by the current thread and stops buffering.
+	 */
+	protected static void flushBufferedOutput() {
+		StringBuffer buffer = outBuffer.get();
+		if (buffer != null) {
+			outBuffer.remove();
+			print(buffer.toString());
+		}
 	}
 	
 	/**
@@ -833,6 +2046,78 @@ public class GoogleDocsUpload {
 		this.documentList = documentList;
 	}
 	
+	/**
+	 * Gets the upload journal.
+	 * 
+	 * @return the upload journal, null if disabled
+	 */
+	protected UploadJournal getUploadJournal() {
+		return uploadJournal;
+	}
+
+	/**
+	 * Sets the upload journal.
+	 * 
+	 * @param uploadJournal the new upload journal
+	 */
+	protected void setUploadJournal(UploadJournal uploadJournal) {
+		this.uploadJournal = uploadJournal;
+	}
+	
+	/**
+	 * Gets the remote tree cache.
+	 * 
+	 * @return the remote tree cache, null if disabled
+	 */
+	protected RemoteTreeCache getRemoteTreeCache() {
+		return remoteTreeCache;
+	}
+
+	/**
+	 * Sets the remote tree cache.
+	 * 
+	 * @param remoteTreeCache the new remote tree cache
+	 */
+	protected void setRemoteTreeCache(RemoteTreeCache remoteTreeCache) {
+		this.remoteTreeCache = remoteTreeCache;
+	}
+	
+	/**
+	 * Gets the upload executor.
+	 * 
+	 * @return the upload executor
+	 */
+	protected ExecutorService getUploadExecutor() {
+		return uploadExecutor;
+	}
+
+	/**
+	 * Sets the upload executor.
+	 * 
+	 * @param uploadExecutor the new upload executor
+	 */
+	protected void setUploadExecutor(ExecutorService uploadExecutor) {
+		this.uploadExecutor = uploadExecutor;
+	}
+	
+	/**
+	 * Gets the folder executor.
+	 * 
+	 * @return the folder executor
+	 */
+	protected ExecutorService getFolderExecutor() {
+		return folderExecutor;
+	}
+	
+	/**
+	 * Sets the folder executor.
+	 * 
+	 * @param folderExecutor the new folder executor
+	 */
+	protected void setFolderExecutor(ExecutorService folderExecutor) {
+		this.folderExecutor = folderExecutor;
+	}
+	
 	/**
 	 * Gets the out.
 	 * 
@@ -992,5 +2277,131 @@ public class GoogleDocsUpload {
 	protected static void setOptionDisableRetries(boolean optionDisableRetries) {
 		GoogleDocsUpload.optionDisableRetries = optionDisableRetries;
 	}
+
+	/**
+	 * Gets the option threads.
+	 * 
+	 * @return the number of parallel uploads
+	 */
+	protected static int getOptionThreads() {
+		return optionThreads;
+	}
+
+	/**
+	 * Sets the option threads.
+	 * 
+	 * @param optionThreads the new number of parallel uploads
+	 */
+	protected static void setOptionThreads(int optionThreads) {
+		GoogleDocsUpload.optionThreads = optionThreads;
+	}
+
+	/**
+	 * Checks if is option resume.
+	 * 
+	 * @return true, if is option resume
+	 */
+	protected static boolean isOptionResume() {
+		return optionResume;
+	}
+
+	/**
+	 * Sets the option resume.
+	 * 
+	 * @param optionResume the new option resume
+	 */
+	protected static void setOptionResume(boolean optionResume) {
+		GoogleDocsUpload.optionResume = optionResume;
+	}
+
+	/**
+	 * Checks if is option sync.
+	 * 
+	 * @return true, if is option sync
+	 */
+	protected static boolean isOptionSync() {
+		return optionSync;
+	}
+
+	/**
+	 * Sets the option sync.
+	 * 
+	 * @param optionSync the new option sync
+	 */
+	protected static void setOptionSync(boolean optionSync) {
+		GoogleDocsUpload.optionSync = optionSync;
+	}
+
+	/**
+	 * Checks if is option download.
+	 * 
+	 * @return true, if is option download
+	 */
+	protected static boolean isOptionDownload() {
+		return optionDownload;
+	}
+
+	/**
+	 * Sets the option download.
+	 * 
+	 * @param optionDownload the new option download
+	 */
+	protected static void setOptionDownload(boolean optionDownload) {
+		GoogleDocsUpload.optionDownload = optionDownload;
+	}
+
+	/**
+	 * Gets the option scan threads.
+	 * 
+	 * @return the number of threads listing the local folders
+	 */
+	protected static int getOptionScanThreads() {
+		return optionScanThreads;
+	}
+
+	/**
+	 * Sets the option scan threads.
+	 * 
+	 * @param optionScanThreads the new number of threads listing the local folders
+	 */
+	protected static void setOptionScanThreads(int optionScanThreads) {
+		GoogleDocsUpload.optionScanThreads = optionScanThreads;
+	}
+
+	/**
+	 * Checks if is option virtual threads.
+	 * 
+	 * @return true, if is option virtual threads
+	 */
+	protected static boolean isOptionVirtualThreads() {
+		return optionVirtualThreads;
+	}
+
+	/**
+	 * Sets the option virtual threads.
+	 * 
+	 * @param optionVirtualThreads the new option virtual threads
+	 */
+	protected static void setOptionVirtualThreads(boolean optionVirtualThreads) {
+		GoogleDocsUpload.optionVirtualThreads = optionVirtualThreads;
+	}
+
+	/**
+	 * Checks if is option connection stats.
+	 * 
+	 * @return true, if is option connection stats
+	 */
+	protected static boolean isOptionConnectionStats() {
+		return optionConnectionStats;
+	}
+
+	/**
+	 * Sets the option connection stats.
+	 * 
+	 * @param optionConnectionStats the new option connection stats
+	 */
+	protected static void setOptionConnectionStats(boolean optionConnectionStats) {
+		GoogleDocsUpload.optionConnectionStats = optionConnectionStats;
+	}
 	
 }
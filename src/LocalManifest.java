@@ -0,0 +1,519 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The list of the local files and folders to upload.
+ *
+ * The manifest is built by a single walk of the file system, reading the
+ * size and modification time of every file along the way, so that neither
+ * counting nor uploading the files has to list the folders again. The entries
+ * are in depth-first order: a folder always comes before its contents.
+ *
+ * The walk runs in a background thread and hands the entries over through a
+ * bounded queue, so the uploads start as soon as the first files are found.
+ * The manifest can be iterated only once.
+ *
+ * For large trees the folders can be listed in parallel by a fork/join pool.
+ * The entries come in the same order either way: the contents of a folder in
+ * the order the file system lists them, each sub folder followed by its own
+ * contents, whatever the order the listing threads finish in.
+ *
+ * The files and folders which cannot be read are skipped, and the first
+ * error is kept, so that a partial scan is reported in both modes.
+ */
+public class LocalManifest implements Iterable<LocalManifest.Entry> {
+
+	/**
+	 * A file or folder of the manifest.
+	 */
+	public static class Entry {
+
+		/** The file. */
+		private final File file;
+
+		/** The size in bytes. */
+		private final long size;
+
+		/** The last modification time in milliseconds. */
+		private final long lastModified;
+
+		/** True if the entry is a folder. */
+		private final boolean directory;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param file the file
+		 * @param size the size in bytes
+		 * @param lastModified the last modification time in milliseconds
+		 * @param directory true if the entry is a folder
+		 */
+		public Entry(File file, long size, long lastModified, boolean directory) {
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.directory = directory;
+		}
+
+		/**
+		 * Gets the file.
+		 *
+		 * @return the file
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Gets the size.
+		 *
+		 * @return the size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the last modification time.
+		 *
+		 * @return the last modification time in milliseconds
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Checks if is directory.
+		 *
+		 * @return true, if is directory
+		 */
+		public boolean isDirectory() {
+			return directory;
+		}
+
+	}
+
+	/**
+	 * The listing of a folder, which forks the listings of its sub folders.
+	 */
+	protected class FolderScan extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The entry of the folder. */
+		private Entry entry;
+
+		/** The file key of the folder, to detect the loops of symbolic links. */
+		private Object key;
+
+		/** The scan of the parent folder, null for the root. */
+		private FolderScan parent;
+
+		/** The files and sub folders of the folder in the order of the listing. */
+		private List<Entry> children = new ArrayList<Entry>();
+
+		/** The scans of the sub folders in the order of the listing. */
+		private List<FolderScan> subfolders = new ArrayList<FolderScan>();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param entry the entry of the folder
+		 * @param key the file key of the folder
+		 * @param parent the scan of the parent folder
+		 */
+		protected FolderScan(Entry entry, Object key, FolderScan parent) {
+			this.entry = entry;
+			this.key = key;
+			this.parent = parent;
+		}
+
+		@Override
+		protected void compute() {
+			List<Path> paths = new ArrayList<Path>();
+			try {
+				DirectoryStream<Path> stream = Files.newDirectoryStream(entry.getFile().toPath());
+				try {
+					for (Path path : stream) {
+						paths.add(path);
+					}
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+				skip(entry.getFile().toPath(), e);
+				return;
+			}
+
+			for (Path path : paths) {
+				BasicFileAttributes attrs = null;
+				try {
+					attrs = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// a broken link is not a file, as for the sequential walk
+					if (!Files.isSymbolicLink(path)) {
+						skip(path, e);
+					}
+					continue;
+				}
+				File file = path.toFile();
+				if (attrs.isDirectory()) {
+					if (recursive && folderFilter.accept(file) && !isLoop(attrs.fileKey())) {
+						FolderScan scan = new FolderScan(new Entry(file, 0, attrs.lastModifiedTime().toMillis(), true), attrs.fileKey(), this);
+						scan.fork();
+						children.add(scan.entry);
+						subfolders.add(scan);
+					}
+				} else if (attrs.isRegularFile()) {
+					children.add(new Entry(file, attrs.size(), attrs.lastModifiedTime().toMillis(), false));
+					fileCount.incrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Checks if a folder is this folder or one of its parents.
+		 *
+		 * @param folderKey the file key of the folder
+		 *
+		 * @return true, if the folder would be scanned twice
+		 */
+		private boolean isLoop(Object folderKey) {
+			if (folderKey == null) {
+				return false;
+			}
+			for (FolderScan scan = this; scan != null; scan = scan.parent) {
+				if (folderKey.equals(scan.key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	/** The default capacity of the queue of entries. */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/** The entry marking the end of the walk. */
+	private static final Entry END = new Entry(null, 0, 0, false);
+
+	/** The entries found and not yet iterated. */
+	private BlockingQueue<Entry> queue;
+
+	/** True to scan the sub folders. */
+	private boolean recursive;
+
+	/** The filter of the sub folders to scan. */
+	private FileFilter folderFilter;
+
+	/** The number of files found so far. */
+	private AtomicInteger fileCount = new AtomicInteger();
+
+	/** True when the walk is finished. */
+	private volatile boolean complete;
+
+	/** The first error of the walk, if any. */
+	private volatile IOException error;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param recursive true to scan the sub folders
+	 * @param folderFilter the filter of the sub folders to scan
+	 * @param capacity the maximum number of entries found and not yet iterated
+	 */
+	protected LocalManifest(boolean recursive, FileFilter folderFilter, int capacity) {
+		this.recursive = recursive;
+		this.folderFilter = folderFilter;
+		queue = new ArrayBlockingQueue<Entry>(capacity);
+	}
+
+	/**
+	 * Starts scanning a folder in a background thread.
+	 *
+	 * @param root the folder to scan
+	 * @param recursive true to scan the sub folders
+	 * @param folderFilter the filter of the sub folders to scan
+	 * @param capacity the maximum number of entries found and not yet iterated
+	 *
+	 * @return the manifest
+	 */
+	public static LocalManifest start(File root, boolean recursive, FileFilter folderFilter, int capacity) {
+		return start(root, recursive, folderFilter, capacity, 1);
+	}
+
+	/**
+	 * Starts scanning a folder in a background thread.
+	 *
+	 * @param root the folder to scan
+	 * @param recursive true to scan the sub folders
+	 * @param folderFilter the filter of the sub folders to scan
+	 * @param capacity the maximum number of entries found and not yet iterated
+	 * @param threads the number of threads listing the folders, 1 for a sequential walk
+	 *
+	 * @return the manifest
+	 */
+	public static LocalManifest start(final File root, boolean recursive, FileFilter folderFilter, int capacity, final int threads) {
+		final LocalManifest manifest = new LocalManifest(recursive, folderFilter, capacity);
+		Thread scanner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (threads > 1) {
+					manifest.scanParallel(root, threads);
+				} else {
+					manifest.scan(root);
+				}
+			}
+		}, "manifest-scanner");
+		scanner.setDaemon(true);
+		scanner.start();
+		return manifest;
+	}
+
+	/**
+	 * Scans a folder.
+	 *
+	 * @param root the folder to scan
+	 */
+	protected void scan(File root) {
+		final Path rootPath = root.toPath();
+		try {
+			Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					File file = dir.toFile();
+					if (!dir.equals(rootPath) && !folderFilter.accept(file)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return put(new Entry(file, 0, attrs.lastModifiedTime().toMillis(), true));
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+					// the folders beyond the maximum depth are visited as files
+					if (attrs.isRegularFile()) {
+						fileCount.incrementAndGet();
+						return put(new Entry(path.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis(), false));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path path, IOException e) {
+					if (e instanceof FileSystemLoopException) {
+						// skipped silently like the loops found by the parallel scan
+						return FileVisitResult.CONTINUE;
+					}
+					skip(path, e);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			finish();
+		}
+	}
+
+	/**
+	 * Scans a folder listing the sub folders in parallel.
+	 *
+	 * @param root the folder to scan
+	 * @param threads the number of threads listing the folders
+	 */
+	protected void scanParallel(File root, int threads) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			FolderScan scan = new FolderScan(new Entry(root, 0, root.lastModified(), true), null, null);
+			pool.execute(scan);
+			put(scan);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			// thrown by a listing and rethrown by its join
+			fail(new IOException(e));
+		} finally {
+			pool.shutdownNow();
+			finish();
+		}
+	}
+
+	/**
+	 * Adds the entries of a folder scan in depth-first order, waiting for the
+	 * listings of the folders and for space in the queue.
+	 *
+	 * @param scan the scan of the folder
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	private void put(FolderScan scan) throws InterruptedException {
+		scan.join();
+		queue.put(scan.entry);
+		int next = 0;
+		for (Entry child : scan.children) {
+			if (child.isDirectory()) {
+				put(scan.subfolders.get(next));
+				scan.subfolders.set(next++, null);
+			} else {
+				queue.put(child);
+			}
+		}
+		scan.children = null;
+	}
+
+	/**
+	 * Skips a file or folder which cannot be read, keeping the error if it is the first one.
+	 *
+	 * @param path the path of the file or folder
+	 * @param e the error
+	 */
+	protected void skip(Path path, IOException e) {
+		GoogleDocsUpload.printLine("Skipped " + path + ": " + e.getMessage());
+		fail(e);
+	}
+
+	/**
+	 * Keeps an error of the walk if it is the first one.
+	 *
+	 * @param e the error
+	 */
+	private synchronized void fail(IOException e) {
+		if (error == null) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Marks the walk as finished.
+	 */
+	private void finish() {
+		complete = true;
+		try {
+			queue.put(END);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds an entry, waiting for space in the queue.
+	 *
+	 * @param entry the entry
+	 *
+	 * @return the result telling the walk whether to continue
+	 */
+	protected FileVisitResult put(Entry entry) {
+		try {
+			queue.put(entry);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return FileVisitResult.TERMINATE;
+		}
+		return FileVisitResult.CONTINUE;
+	}
+
+	/**
+	 * Gets the number of files found so far.
+	 *
+	 * @return the number of files
+	 */
+	public int getFileCount() {
+		return fileCount.get();
+	}
+
+	/**
+	 * Checks if the walk is finished, so that the number of files is final.
+	 *
+	 * @return true, if is complete
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Gets the first error of the walk, either a file or folder which could
+	 * not be read and has been skipped, or the error that has stopped it.
+	 *
+	 * @return the error, null if there is none
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Gets an iterator over the entries in depth-first order, which waits for
+	 * the walk to find the next entry.
+	 *
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<Entry> iterator() {
+		return new Iterator<Entry>() {
+			private Entry next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = queue.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						next = END;
+					}
+				}
+				return next != END;
+			}
+
+			@Override
+			public Entry next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Entry entry = next;
+				next = null;
+				return entry;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,340 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.google.gdata.client.http.HttpUrlConnectionSource;
+
+/**
+ * A source of HTTP connections kept alive and reused between the requests.
+ *
+ * The connections are pooled by the keep-alive cache of the JDK, which is
+ * configured through the system properties by {@link #configureKeepAlive},
+ * so the pool settings apply to the whole JVM and must be set at startup,
+ * before the first request is sent. The time an idle connection is kept
+ * alive is the one sent by the server in its Keep-Alive header, or else
+ * the default of the JDK, as it cannot be set before Java 21. The source times the TCP connect and
+ * the TLS handshake of each request which opens a new secure connection,
+ * and keeps the timings of the last requests along with the totals: with
+ * the connections reused, there are far fewer handshakes than requests.
+ */
+public class PooledConnectionSource implements HttpUrlConnectionSource {
+
+	/** The default maximum number of idle connections kept alive per host. */
+	public static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+	/** The number of requests whose timings are kept. */
+	public static final int MAX_TIMINGS = 1000;
+
+	/**
+	 * The timing of a request.
+	 */
+	public static class Timing {
+
+		/** The url of the request. */
+		private final String url;
+
+		/** The time of the TCP connect in nanoseconds, -1 if the connection has been reused. */
+		private volatile long connectTime = -1;
+
+		/** The time of the TLS handshake in nanoseconds, -1 if there has been none. */
+		private volatile long handshakeTime = -1;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param url the url of the request
+		 */
+		public Timing(String url) {
+			this.url = url;
+		}
+
+		/**
+		 * Gets the url.
+		 *
+		 * @return the url of the request
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * Checks if the request has opened a new connection.
+		 *
+		 * @return true, if the request has not reused a kept alive connection
+		 */
+		public boolean isNewConnection() {
+			return connectTime >= 0;
+		}
+
+		/**
+		 * Gets the time of the TCP connect.
+		 *
+		 * @return the time in milliseconds, -1 if the connection has been reused
+		 */
+		public long getConnectTime() {
+			return connectTime < 0 ? -1 : connectTime / 1000000;
+		}
+
+		/**
+		 * Gets the time of the TLS handshake.
+		 *
+		 * @return the time in milliseconds, -1 if there has been none or it has not completed yet
+		 */
+		public long getHandshakeTime() {
+			return handshakeTime < 0 ? -1 : handshakeTime / 1000000;
+		}
+
+	}
+
+	/** The number of requests. */
+	private final AtomicLong requests = new AtomicLong();
+
+	/** The number of TLS handshakes. */
+	private final AtomicLong handshakes = new AtomicLong();
+
+	/** The total time of the TLS handshakes in nanoseconds. */
+	private final AtomicLong handshakeTime = new AtomicLong();
+
+	/** The total time of the TCP connects in nanoseconds. */
+	private final AtomicLong connectTime = new AtomicLong();
+
+	/** The timings of the last requests, the oldest first. */
+	private final LinkedList<Timing> timings = new LinkedList<Timing>();
+
+	/** The timing of the request being sent by the current thread, which opens its connection on that thread. */
+	private final ThreadLocal<Timing> currentTiming = new ThreadLocal<Timing>();
+
+	/** The socket factory timing the handshakes, shared by all the connections so that they can be reused. */
+	private final SSLSocketFactory socketFactory;
+
+	/**
+	 * Constructor.
+	 */
+	public PooledConnectionSource() {
+		socketFactory = new TimingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+	}
+
+	/**
+	 * Configures the keep-alive cache of the JDK for the whole JVM. It is
+	 * called at startup, as the cache reads the settings once.
+	 *
+	 * @param maxConnections the maximum number of idle connections kept alive per host
+	 */
+	public static void configureKeepAlive(int maxConnections) {
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.google.gdata.client.http.HttpUrlConnectionSource#openConnection(java.net.URL)
+	 */
+	@Override
+	public HttpURLConnection openConnection(URL url) throws IOException {
+		requests.incrementAndGet();
+		Timing timing = new Timing(url.toString());
+		synchronized (timings) {
+			if (timings.size() == MAX_TIMINGS) {
+				timings.removeFirst();
+			}
+			timings.add(timing);
+		}
+		currentTiming.set(timing);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+		}
+		return connection;
+	}
+
+	/**
+	 * Gets the number of requests.
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Gets the number of TLS handshakes, which is the number of secure connections opened.
+	 *
+	 * @return the number of handshakes
+	 */
+	public long getHandshakes() {
+		return handshakes.get();
+	}
+
+	/**
+	 * Gets the total time of the TLS handshakes.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getHandshakeTime() {
+		return handshakeTime.get() / 1000000;
+	}
+
+	/**
+	 * Gets the average time of a TLS handshake.
+	 *
+	 * @return the time in milliseconds, 0 if there has been no handshake
+	 */
+	public long getAverageHandshakeTime() {
+		long count = handshakes.get();
+		return count == 0 ? 0 : getHandshakeTime() / count;
+	}
+
+	/**
+	 * Gets the average time of the TCP connect of a secure connection.
+	 *
+	 * @return the time in milliseconds, 0 if there has been no handshake
+	 */
+	public long getAverageConnectTime() {
+		long count = handshakes.get();
+		return count == 0 ? 0 : connectTime.get() / 1000000 / count;
+	}
+
+	/**
+	 * Gets the timings of the last requests.
+	 *
+	 * @return a copy of the timings of the last {@link #MAX_TIMINGS} requests, the oldest first
+	 */
+	public List<Timing> getTimings() {
+		synchronized (timings) {
+			return new ArrayList<Timing>(timings);
+		}
+	}
+
+	/**
+	 * A socket factory timing the TLS handshakes of the sockets it creates.
+	 */
+	private class TimingSocketFactory extends SSLSocketFactory {
+
+		/** The factory creating the sockets. */
+		private final SSLSocketFactory factory;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param factory the factory creating the sockets
+		 */
+		public TimingSocketFactory(SSLSocketFactory factory) {
+			this.factory = factory;
+		}
+
+		/**
+		 * Starts timing the handshake of a new socket, for the request being sent by the current thread.
+		 *
+		 * @param socket the socket
+		 *
+		 * @return the socket
+		 */
+		private Socket time(Socket socket) {
+			if (socket instanceof SSLSocket) {
+				final long start = System.nanoTime();
+				// the listener is notified on another thread
+				final Timing timing = currentTiming.get();
+				((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+					@Override
+					public void handshakeCompleted(HandshakeCompletedEvent event) {
+						long time = System.nanoTime() - start;
+						handshakes.incrementAndGet();
+						handshakeTime.addAndGet(time);
+						if (timing != null) {
+							timing.handshakeTime = time;
+						}
+						event.getSocket().removeHandshakeCompletedListener(this);
+					}
+				});
+			}
+			return socket;
+		}
+
+		/**
+		 * Creates an unconnected socket timing its TCP connect, which the
+		 * connection layers the secure socket over.
+		 *
+		 * @return the socket
+		 */
+		@Override
+		public Socket createSocket() {
+			return new Socket() {
+				@Override
+				public void connect(SocketAddress endpoint, int timeout) throws IOException {
+					long start = System.nanoTime();
+					super.connect(endpoint, timeout);
+					long time = System.nanoTime() - start;
+					connectTime.addAndGet(time);
+					Timing timing = currentTiming.get();
+					if (timing != null) {
+						timing.connectTime = time;
+					}
+				}
+			};
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			return time(factory.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return time(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return time(factory.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return time(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return time(factory.createSocket(address, port, localAddress, localPort));
+		}
+
+	}
+
+}
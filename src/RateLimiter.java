@@ -0,0 +1,189 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Random;
+
+/**
+ * A token bucket limiting the rate of the requests to the server.
+ *
+ * The rate adapts to the responses of the server: it grows additively with
+ * every successful request and is halved when the server throttles a request,
+ * so that it settles just below the rate the server allows. The bucket holds
+ * at most one second worth of tokens, which bounds the bursts.
+ *
+ * The limiter also computes the jittered exponential backoff delays of the
+ * retries, so that the clients throttled at the same time do not retry at
+ * the same time.
+ */
+public class RateLimiter {
+
+	/** The default initial rate in requests per second. */
+	public static final double DEFAULT_RATE = 10;
+
+	/** The default minimum rate in requests per second. */
+	public static final double DEFAULT_MIN_RATE = 0.5;
+
+	/** The default maximum rate in requests per second. */
+	public static final double DEFAULT_MAX_RATE = 100;
+
+	/** The default delay of the first retry in milliseconds. */
+	public static final long DEFAULT_BASE_DELAY = 1000;
+
+	/** The default maximum delay of a retry in milliseconds. */
+	public static final long DEFAULT_MAX_DELAY = 64000;
+
+	/** The minimum time between two decreases of the rate in nanoseconds, so that a burst of throttled requests counts once. */
+	private static final long DECREASE_INTERVAL = 1000000000L;
+
+	/** The current rate in requests per second. */
+	private double rate;
+
+	/** The minimum rate in requests per second. */
+	private final double minRate;
+
+	/** The maximum rate in requests per second. */
+	private final double maxRate;
+
+	/** The delay of the first retry in milliseconds. */
+	private final long baseDelay;
+
+	/** The maximum delay of a retry in milliseconds. */
+	private final long maxDelay;
+
+	/** The available tokens, negative when requests are waiting for tokens. */
+	private double tokens;
+
+	/** The time of the last refill of the bucket in nanoseconds. */
+	private long refilled;
+
+	/** The time of the last decrease of the rate in nanoseconds. */
+	private long decreased;
+
+	/** The random generator of the jitter. */
+	private final Random random = new Random();
+
+	/**
+	 * Constructor with the default rates and delays.
+	 */
+	public RateLimiter() {
+		this(DEFAULT_RATE, DEFAULT_MIN_RATE, DEFAULT_MAX_RATE, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rate the initial rate in requests per second
+	 * @param minRate the minimum rate in requests per second
+	 * @param maxRate the maximum rate in requests per second
+	 * @param baseDelay the delay of the first retry in milliseconds
+	 * @param maxDelay the maximum delay of a retry in milliseconds
+	 */
+	public RateLimiter(double rate, double minRate, double maxRate, long baseDelay, long maxDelay) {
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.rate = Math.max(minRate, Math.min(maxRate, rate));
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.tokens = 1;
+		this.refilled = System.nanoTime();
+		this.decreased = refilled - DECREASE_INTERVAL;
+	}
+
+	/**
+	 * Waits for a token to send a request.
+	 */
+	public void acquire() {
+		long wait;
+		synchronized (this) {
+			refill();
+			// take the token in advance, the requests waiting are served in order
+			tokens -= 1;
+			wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / rate * 1000);
+		}
+		sleep(wait);
+	}
+
+	/**
+	 * Increases the rate after a successful request.
+	 */
+	public synchronized void onSuccess() {
+		refill();
+		// about one more request per second for every second at the full rate
+		rate = Math.min(maxRate, rate + 1 / rate);
+	}
+
+	/**
+	 * Decreases the rate after a request throttled by the server.
+	 */
+	public synchronized void onThrottle() {
+		refill();
+		long now = System.nanoTime();
+		if (now - decreased >= DECREASE_INTERVAL) {
+			rate = Math.max(minRate, rate / 2);
+			decreased = now;
+		}
+		tokens = Math.min(tokens, 0);
+	}
+
+	/**
+	 * Gets the current rate.
+	 *
+	 * @return the rate in requests per second
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Gets the delay before a retry, doubled with every attempt and randomized
+	 * between the half and the whole of it.
+	 *
+	 * @param attempt the number of the failed attempts before, starting from 0
+	 *
+	 * @return the delay in milliseconds
+	 */
+	public long getBackoff(int attempt) {
+		long delay = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+		synchronized (random) {
+			return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+		}
+	}
+
+	/**
+	 * Adds the tokens earned since the last refill.
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(Math.max(1, rate), tokens + (now - refilled) / 1e9 * rate);
+		refilled = now;
+	}
+
+	/**
+	 * Sleeps, keeping the interrupted status of the thread.
+	 *
+	 * @param millis the time to sleep in milliseconds
+	 */
+	public static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.List;
+
+import com.google.gdata.data.Link;
+import com.google.gdata.data.OutOfLineContent;
+import com.google.gdata.data.docs.DocumentListEntry;
+
+/**
+ * The fields of a remote document or folder needed by the uploads and the
+ * downloads.
+ *
+ * A parsed docs list entry holds all the links, categories and extension
+ * elements of the Atom entry, which takes a few kilobytes each, whereas this
+ * keeps only the resource id, the title, the etag, the parents, the update
+ * time and the content URI of the files uploaded without conversion.
+ */
+public class RemoteEntry {
+
+	/** The no parents. */
+	private static final String[] NO_PARENTS = new String[0];
+
+	/** The resource id, such as "document:abc", which starts with the type. */
+	private final String resourceId;
+
+	/** The title. */
+	private final String title;
+
+	/** The etag, null if unknown. */
+	private final String etag;
+
+	/** The resource ids of the parent folders. */
+	private final String[] parentIds;
+
+	/** The update time in milliseconds, 0 if unknown. */
+	private final long updated;
+
+	/** The URI of the content, null for the documents converted into the Google Docs format. */
+	private final String contentUri;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param resourceId the resource id
+	 * @param title the title
+	 * @param etag the etag, null if unknown
+	 * @param parentIds the resource ids of the parent folders
+	 * @param updated the update time in milliseconds, 0 if unknown
+	 * @param contentUri the URI of the content, null if none
+	 */
+	public RemoteEntry(String resourceId, String title, String etag, String[] parentIds, long updated, String contentUri) {
+		this.resourceId = resourceId;
+		this.title = title;
+		this.etag = etag;
+		this.parentIds = parentIds == null || parentIds.length == 0 ? NO_PARENTS : parentIds;
+		this.updated = updated;
+		this.contentUri = contentUri;
+	}
+
+	/**
+	 * Copies the needed fields of a docs list entry.
+	 *
+	 * @param entry the entry
+	 *
+	 * @return the remote entry, null if the entry is null
+	 */
+	public static RemoteEntry from(DocumentListEntry entry) {
+		if (entry == null) {
+			return null;
+		}
+		List<Link> links = entry.getParentLinks();
+		String[] parentIds = new String[links.size()];
+		for (int i = 0; i < parentIds.length; i++) {
+			parentIds[i] = getParentId(links.get(i).getHref());
+		}
+		String contentUri = null;
+		if (entry.getContent() instanceof OutOfLineContent) {
+			contentUri = ((OutOfLineContent) entry.getContent()).getUri();
+		}
+		return new RemoteEntry(entry.getResourceId(), entry.getTitle() == null ? "" : entry.getTitle().getPlainText(), entry.getEtag(), parentIds,
+				entry.getUpdated() == null ? 0 : entry.getUpdated().getValue(), contentUri);
+	}
+
+	/**
+	 * Gets the resource id of a parent folder from the href of its parent link.
+	 *
+	 * @param href the href, or the resource id itself
+	 *
+	 * @return the resource id
+	 */
+	public static String getParentId(String href) {
+		String id = href.substring(href.lastIndexOf('/') + 1);
+		try {
+			return URLDecoder.decode(id, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return id;
+		}
+	}
+
+	/**
+	 * Gets the resource id.
+	 *
+	 * @return the resource id
+	 */
+	public String getResourceId() {
+		return resourceId;
+	}
+
+	/**
+	 * Gets the type, such as "document", "pdf" or "folder".
+	 *
+	 * @return the type
+	 */
+	public String getType() {
+		int colon = resourceId.indexOf(':');
+		return colon == -1 ? resourceId : resourceId.substring(0, colon);
+	}
+
+	/**
+	 * Gets the title.
+	 *
+	 * @return the title
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Gets the etag.
+	 *
+	 * @return the etag, null if unknown
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Gets the resource ids of the parent folders.
+	 *
+	 * @return the resource ids, empty for the entries at the root
+	 */
+	public String[] getParentIds() {
+		return parentIds;
+	}
+
+	/**
+	 * Gets the update time.
+	 *
+	 * @return the update time in milliseconds, 0 if unknown
+	 */
+	public long getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Gets the URI of the content of a file uploaded without conversion.
+	 *
+	 * @return the URI, null if none
+	 */
+	public String getContentUri() {
+		return contentUri;
+	}
+
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The graph of all the remote folders, built from a single listing of the
+ * folders feed.
+ *
+ * The sub folders of each folder are indexed by title under the resource id
+ * of the folder, so that looking up a folder by path, or the sub folders of
+ * a folder, needs no request per level. A folder with several parents is
+ * indexed under each of them. The folders are added as they are listed,
+ * revalidated or created; a folder added again is moved from its previous
+ * parents to its current ones.
+ */
+public class RemoteFolderGraph {
+
+	/** The key of the root folder. */
+	private static final String ROOT = "";
+
+	/** All the folders. */
+	private final DocumentListIndex folders;
+
+	/** The sub folders by resource id of the parent folder. */
+	private final Map<String, DocumentListIndex> subFolders = new HashMap<String, DocumentListIndex>();
+
+	/** The resource ids of the parent folders by resource id of the folder. */
+	private final Map<String, String[]> parentIds = new HashMap<String, String[]>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param folders all the folders, which is kept up to date as folders are added
+	 */
+	public RemoteFolderGraph(DocumentListIndex folders) {
+		this.folders = folders;
+		for (RemoteEntry folder : folders.getEntries()) {
+			link(folder);
+		}
+	}
+
+	/**
+	 * Adds a folder, replacing the folder with the same resource id if there is one.
+	 *
+	 * @param folder the folder
+	 */
+	public synchronized void add(RemoteEntry folder) {
+		String[] previous = parentIds.get(folder.getResourceId());
+		if (previous != null) {
+			for (String parentId : previous.length == 0 ? new String[] { ROOT } : previous) {
+				getIndex(parentId).remove(folder.getResourceId());
+			}
+		}
+		folders.add(folder);
+		link(folder);
+	}
+
+	/**
+	 * Gets the sub folders of a folder.
+	 *
+	 * @param folderResourceId the resource id of the folder, null for the root
+	 *
+	 * @return the sub folders indexed by title, which is kept up to date as folders are added
+	 */
+	public synchronized DocumentListIndex getSubFolders(String folderResourceId) {
+		return getIndex(folderResourceId == null ? ROOT : folderResourceId);
+	}
+
+	/**
+	 * Gets all the folders.
+	 *
+	 * @return the folders indexed by title
+	 */
+	public DocumentListIndex getFolders() {
+		return folders;
+	}
+
+	/**
+	 * Indexes a folder under its parents, or under the root if it has none.
+	 *
+	 * @param folder the folder
+	 */
+	private synchronized void link(RemoteEntry folder) {
+		String[] parents = folder.getParentIds();
+		parentIds.put(folder.getResourceId(), parents);
+		if (parents.length == 0) {
+			getIndex(ROOT).add(folder);
+		}
+		for (String parentId : parents) {
+			getIndex(parentId).add(folder);
+		}
+	}
+
+	/**
+	 * Gets the index of the sub folders of a folder, creating it if there is none.
+	 *
+	 * @param key the resource id of the folder, or the key of the root
+	 *
+	 * @return the index
+	 */
+	private DocumentListIndex getIndex(String key) {
+		DocumentListIndex index = subFolders.get(key);
+		if (index == null) {
+			index = new DocumentListIndex();
+			subFolders.put(key, index);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.data.docs.DocumentListFeed;
+
+/**
+ * The entries of a docs list feed, streamed page by page.
+ *
+ * Each page is turned into compact remote entries as soon as it is received
+ * and dropped, so that at most the current page and the one being prefetched
+ * are held as parsed Atom entries, however long the feed is. The listing can
+ * be iterated only once; an error stops the iteration and is kept to be
+ * checked once it has ended.
+ */
+public class RemoteListing implements Iterable<RemoteEntry> {
+
+	/** The pager through the pages of the feed. */
+	private final FeedPager pages;
+
+	/** The error that has stopped the listing, if any. */
+	private Exception error;
+
+	/** The number of entries returned so far. */
+	private int count;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pages the pager through the pages of the feed
+	 */
+	public RemoteListing(FeedPager pages) {
+		this.pages = pages;
+	}
+
+	/**
+	 * Gets the error that has stopped the listing.
+	 *
+	 * @return the error, null if there is none
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * Gets the number of entries returned so far.
+	 *
+	 * @return the number of entries
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Stops requesting the pages if the rest of the listing is not needed.
+	 */
+	public void close() {
+		pages.close();
+	}
+
+	/**
+	 * Gets an iterator over the entries, which requests the pages as they are needed.
+	 *
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<RemoteEntry> iterator() {
+		return new Iterator<RemoteEntry>() {
+			private RemoteEntry[] page = new RemoteEntry[0];
+			private int index;
+			private boolean ended;
+
+			@Override
+			public boolean hasNext() {
+				while (index == page.length && !ended) {
+					try {
+						DocumentListFeed feed = pages.next();
+						if (feed == null || feed.getEntries().isEmpty()) {
+							ended = true;
+						} else {
+							List<DocumentListEntry> entries = feed.getEntries();
+							page = new RemoteEntry[entries.size()];
+							for (int i = 0; i < page.length; i++) {
+								page[i] = RemoteEntry.from(entries.get(i));
+							}
+							index = 0;
+						}
+					} catch (Exception e) {
+						error = e;
+						ended = true;
+					}
+					if (ended) {
+						close();
+					}
+				}
+				return index < page.length;
+			}
+
+			@Override
+			public RemoteEntry next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				count++;
+				RemoteEntry entry = page[index];
+				page[index++] = null;
+				return entry;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,247 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An on-disk cache of the remote folder listings.
+ *
+ * Each listing is stored with the time it was fetched, so that it can be
+ * revalidated by requesting only the entries updated since then instead of
+ * paging through the whole folder again. Listings older than the maximum age
+ * are dropped and fully fetched again, which also forgets the documents that
+ * were deleted or moved away by other clients.
+ *
+ * For every entry the cache keeps the resource id (which includes the type),
+ * the title, the etag, the parent folders, the update time and the content
+ * URI.
+ */
+public class RemoteTreeCache {
+
+	/** The maximum age of a listing in milliseconds. */
+	public static final long MAX_AGE = 24 * 60 * 60 * 1000L;
+
+	/** The margin subtracted from the listing times to tolerate clock skew, in milliseconds. */
+	public static final long CLOCK_SKEW = 5 * 60 * 1000L;
+
+	/** The key of the listing of all the folders. */
+	public static final String ALL_FOLDERS = "folders:all";
+
+	/** The key of the root folder. */
+	private static final String ROOT = "root";
+
+	/** The cache file. */
+	private File file;
+
+	/** The listings by key. */
+	private Map<String, DocumentListIndex> listings = new HashMap<String, DocumentListIndex>();
+
+	/** The listing times by key. */
+	private Map<String, Long> listed = new HashMap<String, Long>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the cache file
+	 */
+	public RemoteTreeCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Gets the key of a folder listing.
+	 *
+	 * @param folderResourceId the resource id of the folder, null for the root
+	 * @param folders true for the listing of the sub folders, false for the documents
+	 *
+	 * @return the key
+	 */
+	public static String getListingKey(String folderResourceId, boolean folders) {
+		return (folders ? "folders:" : "docs:") + (folderResourceId == null ? ROOT : folderResourceId);
+	}
+
+	/**
+	 * Gets a cached listing that is not older than the maximum age.
+	 *
+	 * @param key the key of the listing
+	 *
+	 * @return the listing, null if not cached
+	 */
+	public synchronized DocumentListIndex getListing(String key) {
+		Long time = listed.get(key);
+		if (time == null || System.currentTimeMillis() - time > MAX_AGE) {
+			return null;
+		}
+		return listings.get(key);
+	}
+
+	/**
+	 * Gets the number of entries of a cached listing, even if it is older
+	 * than the maximum age, as an estimate of the size of the folder.
+	 *
+	 * @param key the key of the listing
+	 *
+	 * @return the number of entries, -1 if not cached
+	 */
+	public synchronized int getListingSize(String key) {
+		DocumentListIndex listing = listings.get(key);
+		return listing == null ? -1 : listing.size();
+	}
+
+	/**
+	 * Gets the time since which a cached listing has to be revalidated.
+	 *
+	 * @param key the key of the listing
+	 *
+	 * @return the time in milliseconds, including the clock skew margin
+	 */
+	public synchronized long getRevalidationTime(String key) {
+		return listed.get(key) - CLOCK_SKEW;
+	}
+
+	/**
+	 * Stores a listing.
+	 *
+	 * @param key the key of the listing
+	 * @param listing the listing, which keeps being updated by the uploads
+	 * @param time the time when the listing was requested
+	 */
+	public synchronized void putListing(String key, DocumentListIndex listing, long time) {
+		listings.put(key, listing);
+		listed.put(key, time);
+	}
+
+	/**
+	 * Loads the cache file if it exists.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void load() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			DocumentListIndex listing = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields[0].equals("L") && fields.length == 3) {
+					listing = new DocumentListIndex();
+					listings.put(fields[1], listing);
+					listed.put(fields[1], Long.parseLong(fields[2]));
+				} else if (fields[0].equals("E") && (fields.length == 5 || fields.length == 7) && listing != null) {
+					// the parents were stored as links by the earlier versions
+					String[] parents = fields[3].isEmpty() ? null : fields[3].split(" ");
+					for (int i = 0; parents != null && i < parents.length; i++) {
+						parents[i] = RemoteEntry.getParentId(parents[i]);
+					}
+					long updated = fields.length == 7 ? Long.parseLong(fields[5]) : 0;
+					String contentUri = fields.length == 7 && !fields[6].isEmpty() ? fields[6] : null;
+					listing.add(new RemoteEntry(fields[1], unescape(fields[4]), fields[2].isEmpty() ? null : fields[2], parents, updated, contentUri));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Saves the cache file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+		try {
+			for (Map.Entry<String, DocumentListIndex> listing : listings.entrySet()) {
+				writer.print("L\t" + listing.getKey() + "\t" + listed.get(listing.getKey()) + "\n");
+				for (RemoteEntry entry : listing.getValue().getEntries()) {
+					StringBuffer parents = new StringBuffer();
+					for (String parent : entry.getParentIds()) {
+						if (parents.length() > 0) {
+							parents.append(" ");
+						}
+						parents.append(parent);
+					}
+					writer.print("E\t" + entry.getResourceId() + "\t" + (entry.getEtag() == null ? "" : entry.getEtag()) + "\t" + parents + "\t"
+							+ escape(entry.getTitle()) + "\t" + entry.getUpdated() + "\t" + (entry.getContentUri() == null ? "" : entry.getContentUri()) + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Failed to write " + tmp);
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Escapes the tabs, line breaks and backslashes of a title.
+	 *
+	 * @param title the title
+	 *
+	 * @return the escaped title
+	 */
+	private static String escape(String title) {
+		return title.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	/**
+	 * Unescapes a title.
+	 *
+	 * @param title the escaped title
+	 *
+	 * @return the title
+	 */
+	private static String unescape(String title) {
+		StringBuffer result = new StringBuffer(title.length());
+		for (int i = 0; i < title.length(); i++) {
+			char c = title.charAt(i);
+			if (c == '\\' && i + 1 < title.length()) {
+				char next = title.charAt(++i);
+				if (next == 't') {
+					result.append('\t');
+				} else if (next == 'n') {
+					result.append('\n');
+				} else if (next == 'r') {
+					result.append('\r');
+				} else {
+					result.append(next);
+				}
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,363 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import com.google.gdata.client.http.HttpAuthToken;
+import com.google.gdata.client.http.HttpUrlConnectionSource;
+import com.google.gdata.client.media.MediaService;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.ParseSource;
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.util.RateLimitExceededException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.ServiceUnavailableException;
+import com.google.gdata.util.common.xml.XmlWriter;
+
+/**
+ * A file upload using the resumable upload protocol of the GData API.
+ *
+ * The upload first creates a session with the metadata of the document, and
+ * then sends the file in chunks to the session URI. When the upload fails, the
+ * session is kept, and the next upload of the same file asks the server how
+ * many bytes it has received and goes on from there. A session rejected by
+ * the server with a client error, such as an expired session or missing
+ * permissions, is dropped, and the next upload starts a new one.
+ */
+public class ResumableUpload {
+
+	/** The status code of a chunk received while the upload is incomplete. */
+	private static final int RESUME_INCOMPLETE = 308;
+
+	/** The status code of a request rejected because of the rate limit. */
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	/** The number of times the status of a session is asked again when the server fails to answer. */
+	private static final int STATUS_RETRIES = 3;
+
+	/** The delay before asking the status of a session again in milliseconds, doubled at each retry. */
+	private static final long STATUS_RETRY_DELAY = 1000;
+
+	/** The service whose credentials are used. */
+	private final MediaService service;
+
+	/** The connection source, null for the default connections. */
+	private final HttpUrlConnectionSource connectionSource;
+
+	/** The sessions of the uploads in progress. */
+	private final UploadSessions sessions;
+
+	/** The size of a chunk in bytes. */
+	private final long chunkSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param service the service whose credentials are used
+	 * @param connectionSource the connection source, null for the default connections
+	 * @param sessions the sessions of the uploads in progress
+	 * @param chunkSize the size of a chunk in bytes
+	 */
+	public ResumableUpload(MediaService service, HttpUrlConnectionSource connectionSource, UploadSessions sessions, long chunkSize) {
+		this.service = service;
+		this.connectionSource = connectionSource;
+		this.sessions = sessions;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Uploads a file, resuming the previous upload of the file if there is one.
+	 *
+	 * @param url the resumable create media url of the feed
+	 * @param file the file
+	 * @param mimeType the mime type of the file
+	 * @param metadata the entry holding the metadata of the document, such as the title
+	 * @return the uploaded document list entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	public DocumentListEntry upload(URL url, File file, String mimeType, DocumentListEntry metadata) throws IOException, ServiceException {
+		long length = file.length();
+		String session = sessions.get(file, url);
+		long offset = -1;
+		if (session != null) {
+			HttpURLConnection connection = getStatus(session, length);
+			int code = connection.getResponseCode();
+			for (int attempt = 0; isTransient(code) && attempt < STATUS_RETRIES; attempt++) {
+				closeErrorStream(connection);
+				RateLimiter.sleep(STATUS_RETRY_DELAY << attempt);
+				connection = getStatus(session, length);
+				code = connection.getResponseCode();
+			}
+			if (code == RESUME_INCOMPLETE) {
+				offset = getReceived(connection);
+				connection.getInputStream().close();
+			} else if (code == HttpURLConnection.HTTP_OK || code == HttpURLConnection.HTTP_CREATED) {
+				// the upload has completed before the session could be removed
+				DocumentListEntry entry = parseEntry(connection);
+				sessions.remove(file, url);
+				return entry;
+			} else if (isRejected(code)) {
+				// the session has expired or is not accepted any more, upload the file again
+				closeErrorStream(connection);
+				sessions.remove(file, url);
+			} else {
+				// the session is kept, the upload is resumed when it is tried again
+				throw getException(connection);
+			}
+		}
+		if (offset < 0) {
+			session = createSession(url, length, mimeType, metadata);
+			sessions.put(file, url, session);
+			offset = 0;
+		}
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			while (true) {
+				long end = Math.min(offset + chunkSize, length) - 1;
+				HttpURLConnection connection = openConnection(new URL(session), "PUT");
+				connection.setRequestProperty("Content-Type", mimeType);
+				if (length == 0) {
+					connection.setRequestProperty("Content-Range", "bytes */0");
+				} else {
+					connection.setRequestProperty("Content-Range", "bytes " + offset + "-" + end + "/" + length);
+				}
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode((int) (end - offset + 1));
+				sendChunk(in, offset, end - offset + 1, connection.getOutputStream());
+
+				int code = connection.getResponseCode();
+				if (code == RESUME_INCOMPLETE) {
+					offset = getReceived(connection);
+					if (connection.getHeaderField("Location") != null) {
+						session = connection.getHeaderField("Location");
+					}
+					connection.getInputStream().close();
+					continue;
+				}
+				if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_CREATED) {
+					if (isRejected(code)) {
+						// a session rejected once is rejected again, the next upload starts a new one
+						sessions.remove(file, url);
+					}
+					throw getException(connection);
+				}
+				DocumentListEntry entry = parseEntry(connection);
+				sessions.remove(file, url);
+				return entry;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Creates an upload session.
+	 *
+	 * @param url the resumable create media url of the feed
+	 * @param length the length of the file
+	 * @param mimeType the mime type of the file
+	 * @param metadata the entry holding the metadata of the document
+	 * @return the session URI
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private String createSession(URL url, long length, String mimeType, DocumentListEntry metadata) throws IOException, ServiceException {
+		HttpURLConnection connection = openConnection(url, "POST");
+		connection.setRequestProperty("Content-Type", "application/atom+xml");
+		connection.setRequestProperty("X-Upload-Content-Type", mimeType);
+		connection.setRequestProperty("X-Upload-Content-Length", String.valueOf(length));
+		connection.setDoOutput(true);
+		Writer writer = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+		try {
+			metadata.generateAtom(new XmlWriter(writer), service.getExtensionProfile());
+		} finally {
+			writer.close();
+		}
+
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_OK && connection.getResponseCode() != HttpURLConnection.HTTP_CREATED) {
+			throw getException(connection);
+		}
+		String session = connection.getHeaderField("Location");
+		connection.getInputStream().close();
+		if (session == null) {
+			throw new ServiceException("No upload session returned by " + url);
+		}
+		return session;
+	}
+
+	/**
+	 * Asks the server for the status of an upload session.
+	 *
+	 * @param session the session URI
+	 * @param length the length of the file
+	 * @return the connection, with a 308 response telling how many bytes have been received
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private HttpURLConnection getStatus(String session, long length) throws IOException {
+		HttpURLConnection connection = openConnection(new URL(session), "PUT");
+		connection.setRequestProperty("Content-Range", "bytes */" + length);
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(0);
+		connection.getOutputStream().close();
+		return connection;
+	}
+
+	/**
+	 * Checks if a status code tells that the server has failed to answer for now.
+	 *
+	 * @param code the status code
+	 * @return true, if the request may succeed later
+	 */
+	private static boolean isTransient(int code) {
+		return code == TOO_MANY_REQUESTS || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+	}
+
+	/**
+	 * Checks if a status code rejects the request for good, such as an
+	 * expired session, a bad request or missing permissions, so that the
+	 * session is of no use any more.
+	 *
+	 * @param code the status code
+	 * @return true, if the status is a client error other than the rate limit
+	 */
+	private static boolean isRejected(int code) {
+		return code >= HttpURLConnection.HTTP_BAD_REQUEST && code < HttpURLConnection.HTTP_INTERNAL_ERROR && code != TOO_MANY_REQUESTS;
+	}
+
+	/**
+	 * Closes the error stream of a failed request, if there is one.
+	 *
+	 * @param connection the connection
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void closeErrorStream(HttpURLConnection connection) throws IOException {
+		if (connection.getErrorStream() != null) {
+			connection.getErrorStream().close();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes received by the server from the Range header of a response.
+	 *
+	 * @param connection the connection
+	 * @return the number of bytes received
+	 */
+	private static long getReceived(HttpURLConnection connection) {
+		String range = connection.getHeaderField("Range");
+		if (range == null) {
+			return 0;
+		}
+		return Long.parseLong(range.substring(range.lastIndexOf('-') + 1).trim()) + 1;
+	}
+
+	/**
+	 * Sends a chunk of a file.
+	 *
+	 * @param in the file
+	 * @param offset the offset of the chunk
+	 * @param length the length of the chunk
+	 * @param out the output stream of the request
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void sendChunk(RandomAccessFile in, long offset, long length, OutputStream out) throws IOException {
+		try {
+			byte[] buffer = new byte[(int) Math.min(length, 64 * 1024)];
+			in.seek(offset);
+			while (length > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(length, buffer.length));
+				if (n == -1) {
+					throw new IOException("The file has been truncated during the upload");
+				}
+				out.write(buffer, 0, n);
+				length -= n;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Parses the document list entry returned by the server when the upload completes.
+	 *
+	 * @param connection the connection
+	 * @return the document list entry
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ServiceException the service exception
+	 */
+	private DocumentListEntry parseEntry(HttpURLConnection connection) throws IOException, ServiceException {
+		InputStream in = connection.getInputStream();
+		try {
+			DocumentListEntry entry = BaseEntry.readEntry(new ParseSource(in), DocumentListEntry.class, service.getExtensionProfile());
+			entry.setService(service);
+			return entry;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens an authorized connection.
+	 *
+	 * @param url the url
+	 * @param method the HTTP method
+	 * @return the connection
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private HttpURLConnection openConnection(URL url, String method) throws IOException {
+		HttpURLConnection connection = connectionSource != null ? connectionSource.openConnection(url) : (HttpURLConnection) url.openConnection();
+		connection.setInstanceFollowRedirects(false);
+		connection.setRequestMethod(method);
+		if (service.getProtocolVersion() != null) {
+			connection.setRequestProperty("GData-Version", service.getProtocolVersion().getVersionString());
+		}
+		HttpAuthToken token = (HttpAuthToken) service.getAuthTokenFactory().getAuthToken();
+		if (token != null) {
+			connection.setRequestProperty("Authorization", token.getAuthorizationHeader(url, method));
+		}
+		return connection;
+	}
+
+	/**
+	 * Gets the exception of a failed request.
+	 *
+	 * @param connection the connection
+	 * @return the exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static ServiceException getException(HttpURLConnection connection) throws IOException {
+		switch (connection.getResponseCode()) {
+		case HttpURLConnection.HTTP_FORBIDDEN:
+			return new ServiceForbiddenException(connection);
+		case HttpURLConnection.HTTP_UNAVAILABLE:
+			return new ServiceUnavailableException(connection);
+		case TOO_MANY_REQUESTS:
+			return new RateLimitExceededException(connection);
+		default:
+			return new ServiceException(connection);
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of strings, so that equal strings read from different entries,
+ * such as the ids of their parent folders, are kept in memory once.
+ */
+public class StringPool {
+
+	/** The pooled strings. */
+	private Map<String, String> strings = new HashMap<String, String>();
+
+	/**
+	 * Gets the pooled string equal to a string, pooling it if there is none.
+	 *
+	 * @param string the string
+	 *
+	 * @return the pooled string, null if the string is null
+	 */
+	public synchronized String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+		String pooled = strings.get(string);
+		if (pooled == null) {
+			strings.put(string, string);
+			pooled = string;
+		}
+		return pooled;
+	}
+
+	/**
+	 * Gets the number of pooled strings.
+	 *
+	 * @return the number of strings
+	 */
+	public synchronized int size() {
+		return strings.size();
+	}
+
+}
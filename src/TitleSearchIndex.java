@@ -0,0 +1,262 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.data.docs.DocumentListFeed;
+
+/**
+ * An index of the documents of a remote folder filled by searching the
+ * titles as they are looked up, instead of listing the whole folder.
+ *
+ * The index starts with the documents of the first page of the listing.
+ * Each title not found among them is searched once, with an exact title
+ * query, and the documents found are indexed along with the documents
+ * uploaded since. This costs a request per title looked up, which is much
+ * less than listing a large folder when only a few files are uploaded to
+ * it. As the number of files uploaded to the folder is not known in
+ * advance, the time taken by the searches is measured, and the rest of the
+ * listing is fetched instead once they have taken as long as it would. The
+ * entries and the size of the index are those of the titles found so far,
+ * or of the whole folder once it has been listed.
+ *
+ * The concurrent lookups of a title wait for the same search, and all the
+ * lookups wait for the listing once it has started, without holding the
+ * lock of the index during the requests.
+ */
+public class TitleSearchIndex extends DocumentListIndex {
+
+	/** The document list. */
+	private final DocumentList documentList;
+
+	/** The resource id of the folder, null for the root. */
+	private final String folderResourceId;
+
+	/** The first page of the listing of the folder, null once the folder has been listed. */
+	private volatile DocumentListFeed firstPage;
+
+	/** The estimated time of the rest of the listing, in milliseconds. */
+	private final long listingTime;
+
+	/** The time taken by the searches so far, in milliseconds. */
+	private final AtomicLong searchTime = new AtomicLong();
+
+	/** The searches done or running by title, true once the title has been searched. */
+	private final ConcurrentMap<String, FutureTask<Boolean>> searches = new ConcurrentHashMap<String, FutureTask<Boolean>>();
+
+	/** The listing of the folder done or running, null if it has not started or has failed. */
+	private final AtomicReference<FutureTask<Boolean>> listing = new AtomicReference<FutureTask<Boolean>>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param documentList the document list
+	 * @param folderResourceId the resource id of the folder, null for the root
+	 * @param firstPage the first page of the listing of the folder
+	 * @param listingTime the estimated time of the rest of the listing, in milliseconds
+	 */
+	public TitleSearchIndex(DocumentList documentList, String folderResourceId, DocumentListFeed firstPage, long listingTime) {
+		this.documentList = documentList;
+		this.folderResourceId = folderResourceId;
+		this.firstPage = firstPage;
+		this.listingTime = listingTime;
+		for (DocumentListEntry doc : firstPage.getEntries()) {
+			RemoteEntry entry = RemoteEntry.from(doc);
+			if (isInFolder(entry)) {
+				add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Finds the first entry with the title, searching the title if it has not been found yet.
+	 *
+	 * @param title the title
+	 *
+	 * @return the entry, null if not found
+	 */
+	@Override
+	public RemoteEntry findByTitle(String title) {
+		// not holding the lock of the index during the search
+		return findByTitle(title, null);
+	}
+
+	/**
+	 * Finds the first entry with the title and type, searching the title if
+	 * it has not been found yet and the folder has not been listed.
+	 *
+	 * @param title the title
+	 * @param type the type, such as "document" or "folder", null for any type
+	 *
+	 * @return the entry, null if not found
+	 */
+	@Override
+	public RemoteEntry findByTitle(String title, String type) {
+		RemoteEntry entry = super.findByTitle(title, type);
+		if (entry != null || firstPage == null) {
+			return entry;
+		}
+		// a failed listing falls back to the search, and is tried again on the next lookup
+		if (searchTime.get() < listingTime || !list()) {
+			search(title);
+		}
+		return super.findByTitle(title, type);
+	}
+
+	/**
+	 * Searches the documents of the folder with a title, unless it has
+	 * already been searched, or waits for the running search of the title.
+	 *
+	 * @param title the title
+	 */
+	private void search(final String title) {
+		FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return searchTitle(title);
+			}
+		});
+		FutureTask<Boolean> search = searches.putIfAbsent(title, task);
+		if (search == null) {
+			search = task;
+			task.run();
+		}
+		if (!await(search)) {
+			// a failed search is tried again on the next lookup of the title
+			searches.remove(title, search);
+		}
+	}
+
+	/**
+	 * Lists the rest of the folder, unless it has already been listed, or
+	 * waits for the running listing.
+	 *
+	 * @return true, if the whole folder has been listed
+	 */
+	private boolean list() {
+		FutureTask<Boolean> running = listing.get();
+		if (running == null) {
+			FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return listFolder();
+				}
+			});
+			running = listing.compareAndSet(null, task) ? task : listing.get();
+			if (running == task) {
+				task.run();
+			}
+		}
+		if (running == null) {
+			return false;
+		}
+		if (!await(running)) {
+			listing.compareAndSet(running, null);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Searches the documents of the folder with a title and indexes them,
+	 * adding the time taken to the time of the searches.
+	 *
+	 * @param title the title
+	 *
+	 * @return true, if the title has been searched
+	 */
+	private boolean searchTitle(String title) {
+		long start = System.currentTimeMillis();
+		try {
+			RemoteListing entries = null;
+			try {
+				entries = documentList.getEntries(documentList.searchByTitle(folderResourceId, title));
+			} catch (Exception e) {
+				e.printStackTrace();
+				return false;
+			}
+			for (RemoteEntry entry : entries) {
+				if (entry.getTitle().equals(title) && isInFolder(entry)) {
+					add(entry);
+				}
+			}
+			if (entries.getError() != null) {
+				entries.getError().printStackTrace();
+				return false;
+			}
+			return true;
+		} finally {
+			searchTime.addAndGet(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Lists the documents of the whole folder from its first page and indexes them.
+	 *
+	 * @return true, if the whole folder has been listed
+	 */
+	private boolean listFolder() {
+		RemoteListing entries = documentList.getEntries(firstPage);
+		for (RemoteEntry entry : entries) {
+			if (isInFolder(entry)) {
+				add(entry);
+			}
+		}
+		if (entries.getError() != null) {
+			entries.getError().printStackTrace();
+			return false;
+		}
+		firstPage = null;
+		return true;
+	}
+
+	/**
+	 * Waits for a search or the listing.
+	 *
+	 * @param task the task
+	 *
+	 * @return the result of the task, false if it has failed
+	 */
+	private boolean await(FutureTask<Boolean> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether an entry is a document of the folder.
+	 *
+	 * @param entry the entry
+	 *
+	 * @return true, if the entry is a document of the folder
+	 */
+	private boolean isInFolder(RemoteEntry entry) {
+		// the listing and the search of the root return the documents of all the folders
+		return !entry.getType().equals("folder") && (folderResourceId != null || entry.getParentIds().length == 0);
+	}
+
+}
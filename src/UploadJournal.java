@@ -0,0 +1,431 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only journal of the uploaded files.
+ *
+ * A record is appended and synced to the disk after each successful upload,
+ * so that an interrupted run can be resumed without uploading the same files
+ * again. A record which has been cut by a crash is ignored when the journal is
+ * loaded. When a file is journaled several times, the last record wins, and
+ * the superseded records are dropped when the journal is loaded.
+ *
+ * With the content hashes of the files, the journal also serves as the state
+ * of the synchronization, telling which files are new or have changed since
+ * they were uploaded.
+ *
+ * The records are kept by account, remote folder path and local path, as a
+ * journal may be shared by the uploads of several accounts and to several
+ * remote folders. The records written before the accounts and the remote
+ * paths were journaled match any of them.
+ */
+public class UploadJournal {
+
+	/**
+	 * An uploaded file.
+	 */
+	public static class Record {
+
+		/** The absolute path of the local file. */
+		private final String path;
+
+		/** The size of the file in bytes. */
+		private final long size;
+
+		/** The last modification time of the file in milliseconds. */
+		private final long lastModified;
+
+		/** The resource id of the uploaded document. */
+		private final String resourceId;
+
+		/** The resource id of the remote folder, null for the root. */
+		private final String folderResourceId;
+
+		/** The content hash of the file, null if unknown. */
+		private final String hash;
+
+		/** The account the file has been uploaded with, null if unknown. */
+		private final String account;
+
+		/** The path of the remote folder, such as "/a/b", "" for the root, null if unknown. */
+		private final String remotePath;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param path the absolute path of the local file
+		 * @param size the size of the file in bytes
+		 * @param lastModified the last modification time of the file in milliseconds
+		 * @param resourceId the resource id of the uploaded document
+		 * @param folderResourceId the resource id of the remote folder, null for the root
+		 * @param hash the content hash of the file, null if unknown
+		 * @param account the account the file has been uploaded with, null if unknown
+		 * @param remotePath the path of the remote folder, null if unknown
+		 */
+		public Record(String path, long size, long lastModified, String resourceId, String folderResourceId, String hash, String account,
+				String remotePath) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.resourceId = resourceId;
+			this.folderResourceId = folderResourceId;
+			this.hash = hash;
+			this.account = account;
+			this.remotePath = remotePath;
+		}
+
+		/**
+		 * Gets the path.
+		 *
+		 * @return the absolute path of the local file
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Gets the size.
+		 *
+		 * @return the size of the file in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the last modification time.
+		 *
+		 * @return the last modification time of the file in milliseconds
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Gets the resource id.
+		 *
+		 * @return the resource id of the uploaded document
+		 */
+		public String getResourceId() {
+			return resourceId;
+		}
+
+		/**
+		 * Gets the folder resource id.
+		 *
+		 * @return the resource id of the remote folder, null for the root
+		 */
+		public String getFolderResourceId() {
+			return folderResourceId;
+		}
+
+		/**
+		 * Gets the hash.
+		 *
+		 * @return the content hash of the file, null if unknown
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * Gets the account.
+		 *
+		 * @return the account the file has been uploaded with, null if unknown
+		 */
+		public String getAccount() {
+			return account;
+		}
+
+		/**
+		 * Gets the remote path.
+		 *
+		 * @return the path of the remote folder, null if unknown
+		 */
+		public String getRemotePath() {
+			return remotePath;
+		}
+
+	}
+
+	/** The number of superseded records above which the journal is compacted. */
+	private static final int COMPACTION_THRESHOLD = 10000;
+
+	/** The journal file. */
+	private File file;
+
+	/** The account of the uploads. */
+	private String account;
+
+	/** The last record of each account, remote path and local path. */
+	private Map<String, Record> records = new HashMap<String, Record>();
+
+	/** The output stream, opened on the first append. */
+	private FileOutputStream out;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the journal file
+	 * @param account the account of the uploads
+	 */
+	public UploadJournal(File file, String account) {
+		this.file = file;
+		this.account = account;
+	}
+
+	/**
+	 * Gets the account.
+	 *
+	 * @return the account of the uploads
+	 */
+	public String getAccount() {
+		return account;
+	}
+
+	/**
+	 * Loads the journal file if it exists.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void load() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		int lines = 0;
+		int unparsed = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines++;
+				String[] fields = line.split("\t", -1);
+				// a record cut by a crash has fewer fields or lacks the end marker, the records
+				// written before the content hashes have 6 fields and before the remote paths 7
+				if (fields.length < 6 || fields.length > 9 || fields.length == 8 || !fields[fields.length - 1].equals(".")) {
+					unparsed++;
+					continue;
+				}
+				String hash = fields.length >= 7 && !fields[5].isEmpty() ? fields[5] : null;
+				String recordAccount = fields.length == 9 ? fields[6] : null;
+				String remotePath = fields.length == 9 ? fields[7] : null;
+				try {
+					Record record = new Record(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4].isEmpty() ? null
+							: fields[4], hash, recordAccount, remotePath);
+					records.put(getKey(record.getAccount(), record.getRemotePath(), record.getPath()), record);
+				} catch (NumberFormatException e) {
+					unparsed++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		// the lines which could not be parsed are kept, they may be records of another version
+		if (unparsed == 0 && lines > 2 * records.size() + COMPACTION_THRESHOLD) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrites the journal file with the last record of each path.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream tmpOut = new FileOutputStream(tmp);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(tmpOut, "UTF-8"));
+			for (Record record : records.values()) {
+				writer.write(format(record));
+			}
+			writer.flush();
+			tmpOut.getFD().sync();
+		} finally {
+			tmpOut.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Gets the last record of a file uploaded with the account to a remote folder.
+	 *
+	 * @param remotePath the path of the remote folder, such as "/a/b", "" for the root
+	 * @param path the absolute path of the local file
+	 *
+	 * @return the record, null if the file has not been journaled
+	 */
+	public synchronized Record getRecord(String remotePath, String path) {
+		Record record = records.get(getKey(account, remotePath, path));
+		if (record == null) {
+			record = records.get(getKey(null, null, path));
+		}
+		return record;
+	}
+
+	/**
+	 * Checks if a file has been uploaded with the account to a remote folder and has not changed since.
+	 *
+	 * @param remotePath the path of the remote folder, such as "/a/b", "" for the root
+	 * @param path the absolute path of the local file
+	 * @param size the current size of the file in bytes
+	 * @param lastModified the current last modification time of the file in milliseconds
+	 *
+	 * @return true, if the file has been uploaded
+	 */
+	public synchronized boolean contains(String remotePath, String path, long size, long lastModified) {
+		Record record = getRecord(remotePath, path);
+		return record != null && record.getSize() == size && record.getLastModified() == lastModified;
+	}
+
+	/**
+	 * Gets the key of the records of a file.
+	 *
+	 * @param account the account, null if unknown
+	 * @param remotePath the path of the remote folder, null if unknown
+	 * @param path the absolute path of the local file
+	 *
+	 * @return the key
+	 */
+	private static String getKey(String account, String remotePath, String path) {
+		if (account == null || remotePath == null) {
+			return path;
+		}
+		return account + "\t" + remotePath + "\t" + path;
+	}
+
+	/**
+	 * Appends a record and syncs it to the disk.
+	 *
+	 * @param record the record
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void append(Record record) throws IOException {
+		if (out == null) {
+			boolean cut = endsWithCutRecord();
+			out = new FileOutputStream(file, true);
+			if (cut) {
+				out.write('\n');
+			}
+		}
+		out.write(format(record).getBytes("UTF-8"));
+		out.getFD().sync();
+		records.put(getKey(record.getAccount(), record.getRemotePath(), record.getPath()), record);
+	}
+
+	/**
+	 * Formats a record as a line of the journal file.
+	 *
+	 * @param record the record
+	 *
+	 * @return the line
+	 */
+	private static String format(Record record) {
+		return record.getPath() + "\t" + record.getSize() + "\t" + record.getLastModified() + "\t" + record.getResourceId() + "\t"
+				+ (record.getFolderResourceId() == null ? "" : record.getFolderResourceId()) + "\t"
+				+ (record.getHash() == null ? "" : record.getHash()) + "\t"
+				+ (record.getAccount() == null || record.getRemotePath() == null ? "" : record.getAccount() + "\t" + record.getRemotePath() + "\t") + ".\n";
+	}
+
+	/**
+	 * Computes the content hash of a file.
+	 *
+	 * @param file the file
+	 *
+	 * @return the SHA-1 hash as a hexadecimal string
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuffer hex = new StringBuffer();
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Checks if the journal file ends with a record cut by a crash, which the
+	 * next record must not be appended to.
+	 *
+	 * @return true, if the last line of the file is not terminated
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean endsWithCutRecord() throws IOException {
+		if (file.length() == 0) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(raf.length() - 1);
+			return raf.read() != '\n';
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Closes the journal file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+}
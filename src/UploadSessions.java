@@ -0,0 +1,226 @@
+/* Copyright (c) 2009-2011 Anton Beloglazov, http://beloglazov.info
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The session URIs of the resumable uploads in progress.
+ *
+ * A session is kept until its file has been uploaded, so that a failed
+ * upload, even in a later run when the sessions are saved to a file, goes on
+ * from the last byte received by the server. A session belongs to a version
+ * of a file: if the file is modified, it is uploaded again from the start.
+ *
+ * The sessions are kept by account, as the sessions file is shared by the
+ * uploads of all the accounts and a session only accepts the credentials
+ * of the account which has created it. The sessions saved before the
+ * accounts were recorded are dropped, their files are uploaded again.
+ */
+public class UploadSessions {
+
+	/**
+	 * The maximum age of a session in milliseconds, the week the server keeps
+	 * them for. A session which has expired earlier is answered with a 404
+	 * and its file is uploaded again.
+	 */
+	public static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	/**
+	 * A session of a resumable upload.
+	 */
+	private static class Session {
+
+		/** The session URI. */
+		private final String uri;
+
+		/** The creation time of the session in milliseconds. */
+		private final long created;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param uri the session URI
+		 * @param created the creation time of the session in milliseconds
+		 */
+		private Session(String uri, long created) {
+			this.uri = uri;
+			this.created = created;
+		}
+
+	}
+
+	/** The sessions file, null to keep the sessions in memory only. */
+	private File file;
+
+	/** The account of the uploads, null if unknown. */
+	private String account;
+
+	/** The sessions by key. */
+	private Map<String, Session> sessions = new HashMap<String, Session>();
+
+	/**
+	 * Constructor keeping the sessions in memory only.
+	 */
+	public UploadSessions() {
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the sessions file
+	 * @param account the account of the uploads
+	 */
+	public UploadSessions(File file, String account) {
+		this.file = file;
+		this.account = account;
+	}
+
+	/**
+	 * Gets the account.
+	 *
+	 * @return the account of the uploads, null if unknown
+	 */
+	public String getAccount() {
+		return account;
+	}
+
+	/**
+	 * Gets the key of a session.
+	 *
+	 * @param localFile the uploaded file
+	 * @param url the url the upload session has been created at
+	 *
+	 * @return the key
+	 */
+	private String getKey(File localFile, URL url) {
+		return (account == null ? "" : account) + "\t" + localFile.getAbsolutePath() + "\t" + localFile.length() + "\t" + localFile.lastModified() + "\t" + url;
+	}
+
+	/**
+	 * Gets the session URI of the upload of a file.
+	 *
+	 * @param localFile the uploaded file
+	 * @param url the url the upload session has been created at
+	 *
+	 * @return the session URI, null if there is no session or it has expired
+	 */
+	public synchronized String get(File localFile, URL url) {
+		Session session = sessions.get(getKey(localFile, url));
+		if (session == null || System.currentTimeMillis() - session.created > MAX_AGE) {
+			return null;
+		}
+		return session.uri;
+	}
+
+	/**
+	 * Stores the session URI of the upload of a file.
+	 *
+	 * @param localFile the uploaded file
+	 * @param url the url the upload session has been created at
+	 * @param uri the session URI
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void put(File localFile, URL url, String uri) throws IOException {
+		sessions.put(getKey(localFile, url), new Session(uri, System.currentTimeMillis()));
+		save();
+	}
+
+	/**
+	 * Removes the session of the upload of a file.
+	 *
+	 * @param localFile the uploaded file
+	 * @param url the url the upload session has been created at
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void remove(File localFile, URL url) throws IOException {
+		if (sessions.remove(getKey(localFile, url)) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * Loads the sessions file if it exists, dropping the expired sessions.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void load() throws IOException {
+		if (file == null || !file.exists()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				// the sessions of all the accounts are kept, so that saving the file does not drop them
+				if (fields.length != 7) {
+					continue;
+				}
+				try {
+					Session session = new Session(fields[5], Long.parseLong(fields[6]));
+					if (System.currentTimeMillis() - session.created <= MAX_AGE) {
+						sessions.put(fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\t" + fields[3] + "\t" + fields[4], session);
+					}
+				} catch (NumberFormatException e) {
+					continue;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Saves the sessions file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void save() throws IOException {
+		if (file == null) {
+			return;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+		try {
+			for (Map.Entry<String, Session> session : sessions.entrySet()) {
+				writer.print(session.getKey() + "\t" + session.getValue().uri + "\t" + session.getValue().created + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Failed to write " + tmp);
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+}